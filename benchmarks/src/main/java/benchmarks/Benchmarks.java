@@ -0,0 +1,27 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/** helpers shared by benchmarks: scratch project directories. */
+public class Benchmarks {
+
+    public static Path tempDir(){
+        try {
+            return Files.createTempDirectory("worth-bench");
+        }catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void delete(Path dir){
+        if(dir == null) return;
+        try (Stream<Path> files = Files.walk(dir)){
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }catch (IOException ignored){ }
+    }
+}
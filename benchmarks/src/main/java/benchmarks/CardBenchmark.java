@@ -0,0 +1,50 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import shared.Card;
+import shared.CardEvent;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Card.setStatus, which appends an event and sorts the whole history every time: its cost follows the
+ * number of events a card already has. Card is restored to history events each time history doubled,
+ * so the measured size stays between history and twice as much.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CardBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int history;
+
+    private ArrayList<CardEvent> events;
+    private Card card;
+    private int moves;
+
+    @Setup
+    public void setUp(){
+        events = new ArrayList<>();
+        long date = System.currentTimeMillis() / 1000 - history;
+        for(int i = 0; i < history; i++)
+            events.add(new CardEvent(date + i, i % 2 == 0 ? "inprogress" : "toberevised", i % 2 == 0 ? "toberevised" : "inprogress"));
+        restore();
+    }
+
+    @Benchmark
+    public Card setStatus(){
+        if(moves == history) restore();
+        card.setStatus(moves++ % 2 == 0 ? "inprogress" : "toberevised");
+        return card;
+    }
+
+    private void restore(){
+        card = new Card("bench", "benchmark card", "inprogress", new ArrayList<>(events));
+        moves = 0;
+    }
+}
@@ -0,0 +1,33 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import server.utils.MulticastBaker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MulticastBaker address allocation, done on project creation. Addresses are few, so each one is released
+ * right after: apart from the very first allocation, addresses come from the reuse list.
+ * Contended variant shows the cost of its global lock.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MulticastBenchmark {
+
+    @Benchmark
+    public String allocateAndRelease(){
+        String address = MulticastBaker.getNewMulticastAddress();
+        MulticastBaker.releaseAddress(address);
+        return address;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String allocateAndReleaseContended(){
+        return allocateAndRelease();
+    }
+}
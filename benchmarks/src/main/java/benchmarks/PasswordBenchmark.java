@@ -0,0 +1,27 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import server.utils.PasswordHandler;
+
+import java.util.concurrent.TimeUnit;
+
+/** PasswordHandler.hash, paid by every sign up and login. Deliberately slow, hence the few iterations. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordBenchmark {
+    private String salt;
+
+    @Setup
+    public void setUp(){
+        salt = PasswordHandler.salt();
+    }
+
+    @Benchmark
+    public String hash(){
+        return PasswordHandler.hash("benchmark password", salt);
+    }
+}
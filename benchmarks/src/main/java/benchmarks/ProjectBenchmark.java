@@ -0,0 +1,108 @@
+package benchmarks;
+
+import exceptions.CardAlreadyExistsException;
+import exceptions.CardMoveForbidden;
+import exceptions.CardNotFoundException;
+import org.openjdk.jmh.annotations.*;
+import server.utils.FileHandler;
+import shared.Card;
+import shared.Project;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Board operations of Project. Card saves are deferred in a never committed batch unless persist is set,
+ * so that model costs are measured apart from disk writes.
+ * cardExists is private: it is measured through addCard of a card already on the board.
+ * Board is rebuilt every iteration, as card histories grow with each move.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProjectBenchmark {
+
+    @Param({"100", "10000"})
+    public int cards;
+
+    @Param({"false", "true"})
+    public boolean persist;
+
+    private Path dir;
+    private Project project;
+    private String[] names;
+    //true if card is in progress, false if it is to be revised
+    private boolean[] inProgress;
+    private int next = 0;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException, CardAlreadyExistsException, CardMoveForbidden, CardNotFoundException {
+        dir = Benchmarks.tempDir();
+        FileHandler fileHandler = new FileHandler(dir.toString());
+        ArrayList<String> members = new ArrayList<>();
+        members.add("bench");
+        project = new Project("bench", members, "224.0.0.2", fileHandler);
+        fileHandler.saveProject(project);
+
+        fileHandler.beginBatch();
+        names = new String[cards];
+        inProgress = new boolean[cards];
+        for(int i = 0; i < cards; i++){
+            names[i] = "card-" + i;
+            project.addCard(new Card(names[i], "benchmark card"));
+            project.moveCard(names[i], "todo", "inprogress");
+            inProgress[i] = true;
+        }
+        if(persist) fileHandler.commitBatch();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown(){
+        Benchmarks.delete(dir);
+    }
+
+    /** cards cycle between inprogress and toberevised, a move allowed forever. */
+    @Benchmark
+    public long moveCard() throws CardMoveForbidden, CardNotFoundException {
+        int i = next();
+        boolean from = inProgress[i];
+        inProgress[i] = !from;
+        return from ? project.moveCard(names[i], "inprogress", "toberevised")
+                    : project.moveCard(names[i], "toberevised", "inprogress");
+    }
+
+    @Benchmark
+    public Card getCard() throws CardNotFoundException {
+        return project.getCard(names[next()]);
+    }
+
+    @Benchmark
+    public Card getMissingCard(){
+        try {
+            return project.getCard("missing");
+        }catch (CardNotFoundException e){
+            return null;
+        }
+    }
+
+    @Benchmark
+    public boolean addExistingCard(){
+        try {
+            project.addCard(new Card(names[next()], "benchmark card"));
+            return true;
+        }catch (CardAlreadyExistsException e){
+            return false;
+        }
+    }
+
+    private int next(){
+        int i = next;
+        next = i + 1 == cards ? 0 : i + 1;
+        return i;
+    }
+}
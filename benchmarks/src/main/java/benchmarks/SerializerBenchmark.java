@@ -0,0 +1,105 @@
+package benchmarks;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.openjdk.jmh.annotations.*;
+import server.User;
+import server.utils.FileHandler;
+import shared.Card;
+import shared.CardEvent;
+import shared.Project;
+import shared.serializers.FileSerializerHelper;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileSerializerHelper adapters, through a Gson configured as the one FileHandler writes files with.
+ * Card cost follows its history length, every event is written on each save.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializerBenchmark {
+
+    @Param({"1", "100"})
+    public int history;
+
+    private Path dir;
+    private Gson gson;
+    private Card card;
+    private Project project;
+    private User user;
+    private String cardJson;
+    private String projectJson;
+    private String userJson;
+
+    @Setup
+    public void setUp(){
+        dir = Benchmarks.tempDir();
+        FileSerializerHelper serializers = new FileSerializerHelper(new FileHandler(dir.toString()));
+        gson = new GsonBuilder()
+                .registerTypeAdapter(Project.class, serializers.projectJsonSerializer)
+                .registerTypeAdapter(Project.class, serializers.projectJsonDeserializer)
+                .registerTypeAdapter(User.class, serializers.userJsonSerializer)
+                .registerTypeAdapter(User.class, serializers.deserializeUser)
+                .registerTypeAdapter(Card.class, serializers.deserializeCard)
+                .registerTypeAdapter(Card.class, serializers.serializeCard)
+                .setPrettyPrinting()
+                .excludeFieldsWithoutExposeAnnotation()
+                .create();
+
+        ArrayList<CardEvent> events = new ArrayList<>();
+        long date = System.currentTimeMillis() / 1000 - history;
+        for(int i = 0; i < history; i++) events.add(new CardEvent(date + i, "inprogress", "toberevised"));
+        card = new Card("bench", "benchmark card description", "toberevised", events);
+
+        ArrayList<String> members = new ArrayList<>();
+        for(int i = 0; i < 10; i++) members.add("member-" + i);
+        project = new Project("bench", members, null, null);
+        user = new User("bench", "0123456789abcdef0123456789abcdef0123456789a=", "0123456789abcdefghijkl==");
+
+        cardJson = gson.toJson(card);
+        projectJson = gson.toJson(project);
+        userJson = gson.toJson(user);
+    }
+
+    @TearDown
+    public void tearDown(){
+        Benchmarks.delete(dir);
+    }
+
+    @Benchmark
+    public String serializeCard(){
+        return gson.toJson(card);
+    }
+
+    @Benchmark
+    public Card deserializeCard(){
+        return gson.fromJson(cardJson, Card.class);
+    }
+
+    @Benchmark
+    public String serializeProject(){
+        return gson.toJson(project);
+    }
+
+    @Benchmark
+    public Project deserializeProject(){
+        return gson.fromJson(projectJson, Project.class);
+    }
+
+    @Benchmark
+    public String serializeUser(){
+        return gson.toJson(user);
+    }
+
+    @Benchmark
+    public User deserializeUser(){
+        return gson.fromJson(userJson, User.class);
+    }
+}
@@ -0,0 +1,157 @@
+package server;
+
+import benchmarks.Benchmarks;
+import com.google.gson.JsonObject;
+import interfaces.RMIServerInterface;
+import org.openjdk.jmh.annotations.*;
+import server.protocol.BinaryRequestCodec;
+import server.protocol.JsonRequestCodec;
+import server.protocol.Request;
+import server.utils.Log;
+import shared.protocol.BinaryProtocol;
+import shared.protocol.FrameDecoder;
+import shared.protocol.Frames;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.rmi.registry.LocateRegistry;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a reactor does with the bytes of a request, without the socket: frame decoding, request parsing,
+ * dispatch and response encoding (Reactor.readSocketChannel then Server.respond).
+ * Runs on a server started in process, logged in user owns a board of 1000 cards.
+ * Lives in package server to reach Server.respond.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    private static final int CARDS = 1000;
+
+    @Param({"json", "binary"})
+    public String protocol;
+
+    @State(Scope.Benchmark)
+    public static class Running {
+        Path dir;
+        Server server;
+
+        @Setup
+        public void setUp() throws Exception {
+            dir = Benchmarks.tempDir();
+            ServerConfig config = new ServerConfig();
+            config.address = "127.0.0.1";
+            config.tcpPort = 0;
+            try (ServerSocket free = new ServerSocket(0)){
+                config.rmiPort = free.getLocalPort();
+            }
+            config.projectDir = dir.toString();
+            Log.setLevel(Log.Level.WARNING);
+
+            server = new Server(config);
+            Thread t = new Thread(server::start, "worth-server");
+            t.setDaemon(true);
+            t.start();
+
+            RMIServerInterface rmi = null;
+            for(int i = 0; rmi == null; i++){
+                try {
+                    rmi = (RMIServerInterface) LocateRegistry.getRegistry(config.address, config.rmiPort).lookup(config.registryName);
+                }catch (Exception e){
+                    if(i == 200) throw e;
+                    Thread.sleep(50);
+                }
+            }
+            rmi.signUp("bench", "bench");
+
+            Connection owner = new Connection(SocketChannel.open(), InetAddress.getLoopbackAddress());
+            call(owner, "{\"method\":\"login\",\"username\":\"bench\",\"password\":\"bench\"}");
+            call(owner, "{\"method\":\"create-project\",\"username\":\"bench\",\"projectname\":\"bench\"}");
+            for(int i = 0; i < CARDS; i++)
+                call(owner, "{\"method\":\"add-card\",\"username\":\"bench\",\"projectname\":\"bench\",\"cardname\":\"card-"
+                        + i + "\",\"cardesc\":\"benchmark card\"}");
+        }
+
+        @TearDown
+        public void tearDown(){
+            Benchmarks.delete(dir);
+        }
+
+        private void call(Connection connection, String request){
+            for(ByteBuffer b : server.respond(request.getBytes(StandardCharsets.UTF_8), connection))
+                server.getBufferPool().release(b);
+        }
+    }
+
+    private Server server;
+    private Connection connection;
+    private ByteBuffer showCard;
+    private ByteBuffer listCards;
+    private byte[] showCardPayload;
+
+    @Setup
+    public void setUp(Running running) throws IOException {
+        server = running.server;
+        connection = new Connection(SocketChannel.open(), InetAddress.getLoopbackAddress());
+        running.call(connection, "{\"method\":\"login\",\"username\":\"bench\",\"password\":\"bench\"}");
+        connection.setBinary(protocol.equals("binary"));
+
+        JsonObject show = request("show-card");
+        show.addProperty("cardname", "card-42");
+        JsonObject list = request("list-cards");
+        list.addProperty("limit", "100");
+        showCardPayload = encode(show);
+        showCard = Frames.encode(showCardPayload);
+        listCards = Frames.encode(encode(list));
+    }
+
+    @Benchmark
+    public int showCard() throws IOException {
+        return serve(showCard);
+    }
+
+    @Benchmark
+    public int listCards() throws IOException {
+        return serve(listCards);
+    }
+
+    /** request parsing alone. */
+    @Benchmark
+    public Request parse() throws IOException {
+        return connection.isBinary() ? BinaryRequestCodec.decode(showCardPayload) : JsonRequestCodec.decode(showCardPayload);
+    }
+
+    /** @return response size, consuming it. */
+    private int serve(ByteBuffer frame) throws IOException {
+        FrameDecoder decoder = connection.getDecoder();
+        decoder.feed(frame.duplicate());
+        byte[] request = decoder.next();
+        int size = 0;
+        for(ByteBuffer b : server.respond(request, connection)){
+            size += b.remaining();
+            server.getBufferPool().release(b);
+        }
+        return size;
+    }
+
+    private static JsonObject request(String method){
+        JsonObject request = new JsonObject();
+        request.addProperty("method", method);
+        request.addProperty("username", "bench");
+        request.addProperty("projectname", "bench");
+        return request;
+    }
+
+    private byte[] encode(JsonObject request){
+        return connection.isBinary() ? BinaryProtocol.encodeRequest(request) : request.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -6,6 +6,9 @@ import interfaces.RMIClientInterface;
 import interfaces.RMIServerInterface;
 import server.utils.Const;
 import server.utils.Printer;
+import shared.protocol.BinaryProtocol;
+import shared.protocol.FrameDecoder;
+import shared.protocol.Frames;
 
 import java.io.*;
 import java.net.InetSocketAddress;
@@ -18,7 +21,6 @@ import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 
 //IMPORTANT: TO RUN WITH GSON LIBRARY RUN EXPORT
@@ -28,7 +30,9 @@ public class Client {
 
     private final SocketChannel socketChannel;
     private final ByteBuffer buffer;
-    private final ConcurrentHashMap<String, Boolean> worthUsers = new ConcurrentHashMap<>();
+    private final FrameDecoder decoder = new FrameDecoder();
+    private boolean binary = false;
+    private final PresenceCache worthUsers = new PresenceCache();
     private final ChatHelper chatHelper;
     private String loginName = null;
     private RMIClient callbackAgent;
@@ -52,11 +56,15 @@ public class Client {
             put("401", Const.ANSI_RED+ "> ERROR: 401 - Unauthorized" + Const.ANSI_RESET);
             put("403", Const.ANSI_RED+ "> ERROR: 403 - Forbidden" + Const.ANSI_RESET);
             put("409", Const.ANSI_RED+ "> ERROR: 409 - Resource already exists" + Const.ANSI_RESET);
+            put("400", Const.ANSI_RED+ "> ERROR: 400 - Bad request" + Const.ANSI_RESET);
+            put("429", Const.ANSI_RED+ "> ERROR: 429 - Too many attempts, try again later" + Const.ANSI_RESET);
             put("500", Const.ANSI_RED+ "> ERROR: 500 - Internal Server Error" + Const.ANSI_RESET);
+            put("503", Const.ANSI_RED+ "> ERROR: 503 - Server busy, try again later" + Const.ANSI_RESET);
         }
     };
 
-    public Client(String address, int port, int rmiport, String registry, ChatHelper chatHelper) throws IOException, NotBoundException {
+    public Client(String address, int port, int rmiport, String registry, ChatHelper chatHelper, boolean binaryProtocol)
+            throws IOException, NotBoundException {
         this.chatHelper = chatHelper;
         this.registry = LocateRegistry.getRegistry(address, rmiport);
         remote = (RMIServerInterface) this.registry.lookup(registry);
@@ -73,6 +81,22 @@ public class Client {
         buffer = ByteBuffer.wrap(new byte[8192]);
         buffer.clear();
         Printer.println(String.format("> DEBUG: Connection established to WORTH server @ %s:%d", address, port), "yellow");
+        if(binaryProtocol) negotiateBinary();
+    }
+
+    /** asks server to switch this connection to the compact binary protocol, staying on JSON if refused. */
+    private void negotiateBinary(){
+        JsonObject hello = new JsonObject();
+        hello.addProperty("method", "hello");
+        hello.addProperty("protocol", BinaryProtocol.PROTOCOL_NAME);
+        writeSocket(hello);
+
+        JsonObject response = gson.fromJson(readSocket(), JsonObject.class);
+        if(response != null && response.get("return-code").getAsInt() == 200){
+            binary = true;
+            Printer.println("> DEBUG: Using binary protocol", "yellow");
+        }
+        else Printer.println("> WARNING: Server refused binary protocol, using JSON", "yellow");
     }
 
     /**
@@ -163,7 +187,7 @@ public class Client {
             //System.out.println("> DEBUG: " + loginJson);
 
             //write login request to server
-            writeSocket(loginJson.toString().getBytes());
+            writeSocket(loginJson);
 
             //wait for response, check if read is successful
             String responseString = readSocket();
@@ -181,18 +205,18 @@ public class Client {
             if (response.get("return-code").getAsString().equals("200")) {
                 Printer.println("< Login Successful!", "green");
                 this.loginName = username; //associating current login name to session for future requests
+            } else if (response.has("retry-after")) {
+                //throttled (429): server tells how long to wait before trying again
+                Printer.println("< Login failed: too many attempts, try again in "
+                        + response.get("retry-after").getAsString() + " seconds", "red");
+                return;
             } else {
                 Printer.println("< Login failed: " + response.get("return-code").getAsString(), "red");
                 return;
             }
 
-            //parse users to local map
-            JsonArray userlist = response.get("registered-users").getAsJsonArray();
-
-            for (JsonElement j : userlist) {
-                JsonObject user = (JsonObject) j;
-                worthUsers.put(user.get("username").getAsString(), (user.get("status").getAsBoolean()));
-            }
+            //user list is no more sent at login, it is downloaded the first time it is shown (see listUsers)
+            worthUsers.clear();
 
             //join to project chats
             for(JsonElement e : response.get("projects-list").getAsJsonArray()){
@@ -231,7 +255,7 @@ public class Client {
         request.addProperty("username", loginName);
 
         try {
-            writeSocket(request.toString().getBytes());
+            writeSocket(request);
 
             //read response from server
             String responseString = readSocket();
@@ -243,6 +267,7 @@ public class Client {
 
             loginName = null;
             remote.unregisterForCallback(callbackAgent);
+            worthUsers.clear();
 
         } catch (IOException | JsonIOException e) {
             Printer.println("< Error sending message to server", "red");
@@ -271,7 +296,7 @@ public class Client {
         request.addProperty("method", "create-project");
         request.addProperty("projectname", name);
 
-        writeSocket(request.toString().getBytes());
+        writeSocket(request);
 
         String returnCode = gson.fromJson(readSocket(), JsonObject.class).get("return-code").getAsString();
         System.out.println(returnCodes.get(returnCode));
@@ -288,7 +313,7 @@ public class Client {
         request.addProperty("username", loginName);
         request.addProperty("method", "list-projects");
 
-        writeSocket(request.toString().getBytes());
+        writeSocket(request);
         String response = readSocket();
 
         JsonArray projects = gson.fromJson(response, JsonObject.class).get("projects").getAsJsonArray();
@@ -314,6 +339,20 @@ public class Client {
             return;
         }
 
+        Map<String, Boolean> users;
+        if(onlyOnlineUsers && !worthUsers.isComplete()){
+            //online users only are far less than whole list, don't download it just for them.
+            users = new TreeMap<>();
+            if(!fetchUsers("list-online", users)) return;
+        } else {
+            //user list is downloaded once, callbacks keep it current afterwards.
+            if(!worthUsers.isComplete()){
+                if(!fetchUsers("list-users", null)) return;
+                worthUsers.setComplete();
+            }
+            users = worthUsers.snapshot();
+        }
+
         //green online string, offline label will be printed with default terminal color.
         String online = Const.ANSI_GREEN + "online     " + Const.ANSI_RESET;
         String status;
@@ -322,7 +361,7 @@ public class Client {
         System.out.format("| Username        | Status      |%n");
         System.out.format("+-----------------+-------------+%n");
 
-        for (Map.Entry<String, Boolean> entry : worthUsers.entrySet()) {
+        for (Map.Entry<String, Boolean> entry : users.entrySet()) {
             if (entry.getValue()) status = online;
             else status = "offline";
             if(onlyOnlineUsers) {
@@ -349,7 +388,7 @@ public class Client {
         request.addProperty("method", "show-members");
         request.addProperty("projectname", projectname);
 
-        writeSocket(request.toString().getBytes());
+        writeSocket(request);
         JsonObject response = gson.fromJson(readSocket(), JsonObject.class);
 
         String returnCode = response.get("return-code").getAsString();
@@ -389,7 +428,7 @@ public class Client {
         request.addProperty("username", loginName);
         request.addProperty("projectname", projectname);
         request.addProperty("new-member", name);
-        writeSocket(request.toString().getBytes());
+        writeSocket(request);
 
         String returnCode = gson.fromJson(readSocket(), JsonObject.class).get("return-code").getAsString();
         System.out.println(returnCodes.get(returnCode));
@@ -420,7 +459,7 @@ public class Client {
         request.addProperty("cardname", cardname);
         request.addProperty("cardesc", cardDescr);
 
-        writeSocket(request.toString().getBytes());
+        writeSocket(request);
         String returnCode = gson.fromJson(readSocket(), JsonObject.class).get("return-code").getAsString();
         System.out.println(returnCodes.get(returnCode));
         input.close();
@@ -445,7 +484,7 @@ public class Client {
         request.addProperty("projectname", projectname);
         request.addProperty("cardname", name);
 
-        writeSocket(request.toString().getBytes());
+        writeSocket(request);
         JsonObject response = gson.fromJson(readSocket(), JsonObject.class);
         JsonObject cardJson = response.getAsJsonObject("card-info");
         String returnCode = response.get("return-code").getAsString();
@@ -459,6 +498,40 @@ public class Client {
         input.close();
     }
 
+    /**
+     * pages through list-users or list-online.
+     * @param into map online users are put in, null to put every user in local user list,
+     *             with the version of the page so that changes notified meanwhile are not undone.
+     * @return false if server refused the request.
+     */
+    private boolean fetchUsers(String method, Map<String, Boolean> into){
+        JsonObject request = new JsonObject();
+        request.addProperty("username", loginName);
+        request.addProperty("method", method);
+        JsonElement cursor = null;
+        do {
+            if(cursor != null) request.addProperty("cursor", cursor.getAsString());
+            writeSocket(request);
+            JsonObject response = gson.fromJson(readSocket(), JsonObject.class);
+            String statusCode = response.get("return-code").getAsString();
+
+            if(!statusCode.equals("200")){
+                System.out.println(returnCodes.get(statusCode));
+                return false;
+            }
+
+            long version = response.get("version").getAsLong();
+            for(JsonElement e : response.get("users").getAsJsonArray()){
+                JsonObject user = e.getAsJsonObject();
+                String username = user.get("username").getAsString();
+                if(into != null) into.put(username, true);
+                else worthUsers.update(username, user.get("status").getAsBoolean(), version);
+            }
+            cursor = response.get("next-cursor");
+        } while(cursor != null);
+        return true;
+    }
+
     public void listCards() throws IOException{
         if(loginName == null) {
             Printer.println("> ERROR: You must log in to see registered users.", "red");
@@ -472,28 +545,36 @@ public class Client {
         request.addProperty("username", loginName);
         request.addProperty("method", "list-cards");
         request.addProperty("projectname", projectname);
-
-        writeSocket(request.toString().getBytes());
-        JsonObject response = gson.fromJson(readSocket(), JsonObject.class);
-        String statusCode = response.get("return-code").getAsString();
-
-        if(!statusCode.equals("200")){
-            System.out.println(returnCodes.get(statusCode));
-            return;
-        }
-
-        JsonArray cards = response.get("card-list").getAsJsonArray();
+        //descriptions are not shown here, don't let server send them.
+        request.addProperty("fields", "card-name,card-state");
 
         //green online string, offline label will be printed with default terminal color.
         String rowFormat = "| %-15s | %-11s |%n";
-        System.out.format("+-----------------+-------------+%n");
-        System.out.format("| Card Name       | List        |%n");
-        System.out.format("+-----------------+-------------+%n");
-        for(JsonElement e : cards){
-            System.out.format(rowFormat,
-                    e.getAsJsonObject().get("card-name").getAsString(),
-                    e.getAsJsonObject().get("card-state").getAsString());
-        }
+        //cards come in pages, follow next-cursor until last one.
+        JsonElement cursor = null;
+        do {
+            if(cursor != null) request.addProperty("cursor", cursor.getAsString());
+            writeSocket(request);
+            JsonObject response = gson.fromJson(readSocket(), JsonObject.class);
+            String statusCode = response.get("return-code").getAsString();
+
+            if(!statusCode.equals("200")){
+                System.out.println(returnCodes.get(statusCode));
+                return;
+            }
+
+            if(cursor == null) {
+                System.out.format("+-----------------+-------------+%n");
+                System.out.format("| Card Name       | List        |%n");
+                System.out.format("+-----------------+-------------+%n");
+            }
+            for(JsonElement e : response.get("card-list").getAsJsonArray()){
+                System.out.format(rowFormat,
+                        e.getAsJsonObject().get("card-name").getAsString(),
+                        e.getAsJsonObject().get("card-state").getAsString());
+            }
+            cursor = response.get("next-cursor");
+        } while(cursor != null);
         System.out.format("+-----------------+-------------+%n");
         input.close();
     }
@@ -526,7 +607,7 @@ public class Client {
         request.addProperty("from", from);
         request.addProperty("to", to);
 
-        writeSocket(request.toString().getBytes());
+        writeSocket(request);
         String returnCode = gson.fromJson(readSocket(), JsonObject.class).get("return-code").getAsString();
         System.out.println(returnCodes.get(returnCode));
 
@@ -564,32 +645,37 @@ public class Client {
         request.addProperty("projectname", projectname);
         request.addProperty("cardname", name);
 
-        writeSocket(request.toString().getBytes());
-
-        JsonObject response = gson.fromJson(readSocket(), JsonObject.class);
-
-        if(!response.get("return-code").getAsString().equals("200")){
-            System.out.println(returnCodes.get(response.get("return-code").getAsString()));
-            return;
-        }
+        String rowFormat = "| %-15s | %-11s | %-23s |%n";
+        //history comes in pages, follow next-cursor until last one.
+        JsonElement cursor = null;
+        do {
+            if(cursor != null) request.addProperty("cursor", cursor.getAsString());
+            writeSocket(request);
 
+            JsonObject response = gson.fromJson(readSocket(), JsonObject.class);
 
-        JsonArray history = response.getAsJsonArray("card-history");
+            if(!response.get("return-code").getAsString().equals("200")){
+                System.out.println(returnCodes.get(response.get("return-code").getAsString()));
+                return;
+            }
 
-        String rowFormat = "| %-15s | %-11s | %-23s |%n";
-        System.out.format("+-----------------+-------------+-------------------------+%n");
-        System.out.format("| From            | To          | Date                    |%n");
-        System.out.format("+-----------------+-------------+-------------------------+%n");
+            if(cursor == null) {
+                System.out.format("+-----------------+-------------+-------------------------+%n");
+                System.out.format("| From            | To          | Date                    |%n");
+                System.out.format("+-----------------+-------------+-------------------------+%n");
+            }
 
-        for(JsonElement e : history){
+            for(JsonElement e : response.getAsJsonArray("card-history")){
 
-            int timestamp = e.getAsJsonObject().get("date").getAsInt();
-            String start = e.getAsJsonObject().get("from").getAsString();
-            String end = e.getAsJsonObject().get("to").getAsString();
-            String date = new java.text.SimpleDateFormat("MM-dd-yyyy HH:mm:ss")
-                    .format(new java.util.Date (timestamp* 1000L));
-            System.out.format(rowFormat, start, end, date);
-        }
+                int timestamp = e.getAsJsonObject().get("date").getAsInt();
+                String start = e.getAsJsonObject().get("from").getAsString();
+                String end = e.getAsJsonObject().get("to").getAsString();
+                String date = new java.text.SimpleDateFormat("MM-dd-yyyy HH:mm:ss")
+                        .format(new java.util.Date (timestamp* 1000L));
+                System.out.format(rowFormat, start, end, date);
+            }
+            cursor = response.get("next-cursor");
+        } while(cursor != null);
         System.out.format("+-----------------+-------------+-------------------------+%n");
         input.close();
     }
@@ -661,7 +747,7 @@ public class Client {
         while(true) {
             ans = input.readLine();
             if ("yes".equals(ans)) {
-                writeSocket(request.toString().getBytes());
+                writeSocket(request);
                 break;
             }
             else if ("no".equals(ans)) {
@@ -680,13 +766,10 @@ public class Client {
     /**
      * Private methods to read and write socket, avoid code duplicates.
      */
-    private void writeSocket(byte[] request){
+    private void writeSocket(JsonObject request){
         try {
-            buffer.clear();
-            buffer.put(request);
-            buffer.flip();
-            while (buffer.hasRemaining()) socketChannel.write(buffer);
-            buffer.clear();
+            ByteBuffer frame = binary ? Frames.encode(BinaryProtocol.encodeRequest(request)) : Frames.encode(request.toString());
+            while (frame.hasRemaining()) socketChannel.write(frame);
         }catch(IOException e){
             Printer.println("< Failed sending message to server. Try Again",  "red");
         }
@@ -694,15 +777,21 @@ public class Client {
 
     private String readSocket(){
         try {
-            if (socketChannel.read(buffer) < 0) {
-                Printer.println("< ERROR: Server closed connection unexpectedly.", "red");
-                System.exit(-1);
+            byte[] frame;
+            //keep reading until a whole response frame has been received
+            while ((frame = decoder.next()) == null) {
+                //decoder has copied aside any partial frame, buffer can be reused
+                buffer.clear();
+                if (socketChannel.read(buffer) < 0) {
+                    Printer.println("< ERROR: Server closed connection unexpectedly.", "red");
+                    System.exit(-1);
+                }
+                buffer.flip();
+                decoder.feed(buffer);
             }
-            buffer.flip();
-            String responseString;
-            responseString = StandardCharsets.UTF_8.decode(buffer).toString();
-            buffer.clear();
-            return responseString;
+            //binary responses are turned back to their JSON form, so callers parse them the same way.
+            if(binary) return BinaryProtocol.decodeResponse(frame).toString();
+            return new String(frame, StandardCharsets.UTF_8);
 
         }catch(IOException e){
             Printer.println("< ERROR: Server closed connection unexpectedly.", "red");
@@ -0,0 +1,45 @@
+package client;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Users known to the client with their status. Downloaded from server (list-users) the first time users
+ * are listed, then kept current by presence changes server sends through RMI callbacks (see RMIClient).
+ * Every change comes with its presence version and is applied only if newer than what is known about that user,
+ * so a change sent while the list was being downloaded is never undone by it.
+ */
+public class PresenceCache {
+    private final HashMap<String, Boolean> status = new HashMap<>();
+    private final HashMap<String, Long> versions = new HashMap<>();
+    //true once the whole user list was downloaded
+    private boolean complete = false;
+
+    public synchronized void update(String username, boolean online, long version){
+        Long known = versions.get(username);
+        if(known != null && known >= version) return;
+        versions.put(username, version);
+        status.put(username, online);
+    }
+
+    public synchronized boolean isComplete(){
+        return complete;
+    }
+
+    public synchronized void setComplete(){
+        complete = true;
+    }
+
+    /** @return status of every known user, sorted by username. */
+    public synchronized Map<String, Boolean> snapshot(){
+        return new TreeMap<>(status);
+    }
+
+    /** forgets everything, e.g. when user logs out. */
+    public synchronized void clear(){
+        status.clear();
+        versions.clear();
+        complete = false;
+    }
+}
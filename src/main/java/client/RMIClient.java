@@ -5,16 +5,15 @@ import interfaces.RMIClientInterface;
 import java.io.IOException;
 import java.rmi.RemoteException;
 import java.rmi.server.RemoteObject;
-import java.util.concurrent.ConcurrentHashMap;
 
 
 public class RMIClient extends RemoteObject implements RMIClientInterface {
-    private final ConcurrentHashMap<String, Boolean> users;
+    private final PresenceCache users;
     private final ChatHelper chatHelper;
     private final String loginName;
 
     /** creates new callback client */
-    public RMIClient(ConcurrentHashMap<String, Boolean> worthUsers, ChatHelper chatHelper, String loginName){
+    public RMIClient(PresenceCache worthUsers, ChatHelper chatHelper, String loginName){
         super();
         this.chatHelper = chatHelper;
         this.users = worthUsers;
@@ -23,8 +22,8 @@ public class RMIClient extends RemoteObject implements RMIClientInterface {
 
     /** called from server when event occurs*/
     @Override
-    public synchronized void notifyUser(String username, Boolean status) throws RemoteException {
-        users.putIfAbsent(username, status);
+    public synchronized void notifyUser(String username, Boolean status, long version) throws RemoteException {
+        users.update(username, status, version);
     }
 
     @Override
@@ -18,6 +18,7 @@ public class WorthClient {
     private static int TCP_PORT;
     private static int RMI_PORT;
     private static int CHAT_PORT;
+    private static boolean BINARY_PROTOCOL;
 
 
     public static void main(String[] args) throws IOException, NotBoundException {
@@ -28,6 +29,7 @@ public class WorthClient {
         options.addOption("n", "registry-name",    true,  "RMI Registry name   - default WORTH-RMI");
         options.addOption("c", "chat-port", true,    "UDP Multicast chat port - default 5678");
         options.addOption("u", "chat-socket", true,    "UDP socket address  - default machine network ip address");
+        options.addOption("P", "protocol",    true,  "TCP protocol: json or binary - default json");
         options.addOption("h", "help",        false, "Prompt help dialog");
 
         HelpFormatter helpFormatter = new HelpFormatter();
@@ -65,6 +67,13 @@ public class WorthClient {
                 REGISTRY_NAME = commandLine.getOptionValues("n")[0];
             else REGISTRY_NAME = "WORTH-RMI";
 
+            if (commandLine.hasOption("P") || commandLine.hasOption("--protocol")) {
+                String protocol = commandLine.getOptionValues("P")[0];
+                if (!protocol.equals("json") && !protocol.equals("binary")) throw new ParseException("unknown protocol");
+                BINARY_PROTOCOL = protocol.equals("binary");
+            }
+            else BINARY_PROTOCOL = false;
+
         }catch(ParseException p){
             helpFormatter.printHelp("java WorthClient", options);
             System.exit(-1);
@@ -75,7 +84,7 @@ public class WorthClient {
 
         try {
             chatHelper = new ChatHelper(CHAT_PORT, CHAT_SOCKET_ADDR);
-            client = new Client(ADDRESS, TCP_PORT, RMI_PORT, REGISTRY_NAME, chatHelper);
+            client = new Client(ADDRESS, TCP_PORT, RMI_PORT, REGISTRY_NAME, chatHelper, BINARY_PROTOCOL);
 
         }catch (IOException | NotBoundException e){
             Printer.println("Failed to connect WORTH server, quit.", "red");
@@ -0,0 +1,53 @@
+package client.sdk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Client side snapshot of a project board. Boards returned by syncProject also carry the project version
+ * they reflect, so they can be brought up to date later by fetching just what changed.
+ */
+public class Board {
+    private final String project;
+    private final long version;
+    private final Map<String, CardInfo> cards;
+    private final List<String> members;
+
+    Board(String project, long version, Map<String, CardInfo> cards, List<String> members){
+        this.project = project;
+        this.version = version;
+        this.cards = Collections.unmodifiableMap(cards);
+        this.members = members == null ? null : Collections.unmodifiableList(members);
+    }
+
+    public String getProject(){ return project; }
+
+    /** project version this board reflects, -1 if unknown (board was listed, not synced). */
+    public long getVersion(){ return version; }
+
+    /** cards by name. */
+    public Map<String, CardInfo> getCards(){ return cards; }
+
+    public CardInfo getCard(String name){ return cards.get(name); }
+
+    /** cards in given list, in name order. */
+    public List<CardInfo> getList(String list){
+        List<CardInfo> inList = new ArrayList<>();
+        for(CardInfo c : cards.values()) if(c.getList().equals(list)) inList.add(c);
+        inList.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return inList;
+    }
+
+    /** project members, null if unknown. */
+    public List<String> getMembers(){ return members; }
+
+    /** applies a sync delta: changed cards replace old ones, members are kept unless they changed. */
+    Board apply(long newVersion, boolean full, List<CardInfo> changed, List<String> newMembers){
+        Map<String, CardInfo> merged = full ? new LinkedHashMap<>() : new LinkedHashMap<>(cards);
+        for(CardInfo c : changed) merged.put(c.getName(), c);
+        return new Board(project, newVersion, merged, newMembers != null ? newMembers : members);
+    }
+}
@@ -0,0 +1,57 @@
+package client.sdk;
+
+import com.google.gson.JsonObject;
+
+/**
+ * A card event pushed by server to subscribed clients, see WorthAsyncClient.subscribe.
+ * Type is "card-created", "card-moved" or "events-missed": the latter tells some events were dropped
+ * because client was not keeping up, and the board should be synced again.
+ */
+public class BoardEvent {
+    private final String type;
+    private final String project;
+    private final String card;
+    private final String from;
+    private final String to;
+    private final String description;
+    private final long version;
+
+    BoardEvent(JsonObject event){
+        this.type = event.get("event").getAsString();
+        this.project = string(event, "projectname");
+        this.card = string(event, "card-name");
+        //a created card is in its first list
+        this.from = string(event, "from");
+        this.to = event.has("to") ? string(event, "to") : string(event, "card-state");
+        this.description = string(event, "card-desc");
+        this.version = event.has("version") ? event.get("version").getAsLong() : -1;
+    }
+
+    public String getType(){ return type; }
+
+    /** project name, null for events-missed. */
+    public String getProject(){ return project; }
+
+    public String getCard(){ return card; }
+
+    /** list card was moved from, null for created cards. */
+    public String getFrom(){ return from; }
+
+    /** list card is in after this event. */
+    public String getTo(){ return to; }
+
+    /** description of created cards, null otherwise. */
+    public String getDescription(){ return description; }
+
+    /** project version after this event, see Board.getVersion. */
+    public long getVersion(){ return version; }
+
+    private static String string(JsonObject o, String key){
+        return o.has(key) ? o.get(key).getAsString() : null;
+    }
+
+    @Override
+    public String toString(){
+        return type + " " + project + "/" + card + " " + from + " -> " + to;
+    }
+}
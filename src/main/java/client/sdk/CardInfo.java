@@ -0,0 +1,26 @@
+package client.sdk;
+
+/** a card as seen by clients. Description is null when it was not requested. */
+public class CardInfo {
+    private final String name;
+    private final String list;
+    private final String description;
+
+    public CardInfo(String name, String list, String description){
+        this.name = name;
+        this.list = list;
+        this.description = description;
+    }
+
+    public String getName(){ return name; }
+
+    /** list card currently is in: todo, inprogress, toberevised or done. */
+    public String getList(){ return list; }
+
+    public String getDescription(){ return description; }
+
+    @Override
+    public String toString(){
+        return name + " (" + list + ")";
+    }
+}
@@ -0,0 +1,443 @@
+package client.sdk;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import exceptions.RequestFailedException;
+import shared.CardEvent;
+import shared.protocol.BinaryProtocol;
+import shared.protocol.FrameDecoder;
+import shared.protocol.Frames;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Headless WORTH client: every request returns at once with a CompletableFuture, completed when its response
+ * arrives, so any number of requests may be in flight on a single connection and the client may be shared
+ * among threads. Responses are matched to requests by the "id" each request carries.
+ * A request answered with an error return code completes exceptionally with a RequestFailedException.
+ *
+ * Futures are completed (and event listeners called) on the reader thread of the client: dependent stages
+ * should use the async variants (thenApplyAsync...) for anything slow. Sign up goes through RMI, see RMIServerInterface.
+ */
+public class WorthAsyncClient implements Closeable {
+    private static final int PAGE_SIZE = 1000;
+    private static final Logger logger = Logger.getLogger(WorthAsyncClient.class.getName());
+
+    private final SocketChannel socketChannel;
+    private final FrameDecoder decoder = new FrameDecoder();
+    private final Gson gson = new Gson();
+    private final AtomicLong nextId = new AtomicLong();
+    //requests waiting for a response, in send order. Guarded by itself.
+    private final LinkedHashMap<String, CompletableFuture<JsonObject>> pending = new LinkedHashMap<>();
+    //orders writes, and so pending requests. Reader never takes it: a write blocked by a server not reading
+    //(because its responses are not consumed) must not stop the reader.
+    private final Object writeLock = new Object();
+    private volatile boolean binary = false;
+    private volatile String username;
+    //session token issued at login, sent in place of username
+    private volatile String token;
+    private volatile boolean closed = false;
+    //card event listeners by project name
+    private final ConcurrentHashMap<String, Consumer<BoardEvent>> listeners = new ConcurrentHashMap<>();
+    private volatile BiConsumer<BoardEvent, RuntimeException> listenerErrorHandler =
+            (event, e) -> logger.log(Level.WARNING, "board event listener failed on " + event.getProject(), e);
+
+    private WorthAsyncClient(SocketChannel socketChannel){
+        this.socketChannel = socketChannel;
+        //a virtual thread: a process may hold thousands of clients (see loadgen)
+        Thread.ofVirtual().name("worth-client-reader").start(this::read);
+    }
+
+    /** connects to server using JSON protocol. */
+    public static WorthAsyncClient connect(String address, int port) throws IOException {
+        return connect(address, port, false);
+    }
+
+    /**
+     * connects to server.
+     * @param binaryProtocol negotiates the compact binary protocol, staying on JSON if server refuses it.
+     */
+    public static WorthAsyncClient connect(String address, int port, boolean binaryProtocol) throws IOException {
+        WorthAsyncClient client = new WorthAsyncClient(SocketChannel.open(new InetSocketAddress(address, port)));
+        if(binaryProtocol){
+            JsonObject hello = new JsonObject();
+            hello.addProperty("method", "hello");
+            hello.addProperty("protocol", BinaryProtocol.PROTOCOL_NAME);
+            try {
+                client.call(hello).get();
+                client.binary = true;
+            }catch (InterruptedException | ExecutionException e){
+                if(client.closed) throw new IOException("Connection closed during protocol negotiation", e);
+            }
+        }
+        return client;
+    }
+
+    /** user logged in through this client, requests are sent on its behalf. */
+    public String getUsername(){
+        return username;
+    }
+
+    /**
+     * session token of logged in user. A client reconnecting shortly after its connection dropped may pass it
+     * to resume, logging in again without a password.
+     */
+    public String getToken(){
+        return token;
+    }
+
+    public CompletableFuture<Void> login(String username, String password){
+        JsonObject request = request("login");
+        request.addProperty("username", username);
+        request.addProperty("password", password);
+        return call(request).thenAccept(r -> {
+            this.username = username;
+            this.token = r.get("token").getAsString();
+        });
+    }
+
+    /** logs in again the user of a session whose connection dropped, see getToken. */
+    public CompletableFuture<Void> resume(String token){
+        JsonObject request = new JsonObject();
+        request.addProperty("method", "resume");
+        request.addProperty("token", token);
+        return call(request).thenAccept(r -> {
+            this.username = r.get("username").getAsString();
+            this.token = token;
+        });
+    }
+
+    public CompletableFuture<Void> logout(){
+        return call(request("logout")).thenAccept(r -> {
+            username = null;
+            token = null;
+        });
+    }
+
+    public CompletableFuture<Void> createProject(String project){
+        JsonObject request = request("create-project");
+        request.addProperty("projectname", project);
+        return call(request).thenAccept(r -> {});
+    }
+
+    /** @return chat multicast address of every project user is member of, by project name. */
+    public CompletableFuture<Map<String, String>> listProjects(){
+        return call(request("list-projects")).thenApply(r -> {
+            Map<String, String> projects = new LinkedHashMap<>();
+            for(JsonElement p : r.getAsJsonArray("projects")){
+                projects.put(p.getAsJsonObject().get("name").getAsString(), p.getAsJsonObject().get("chat-addr").getAsString());
+            }
+            return projects;
+        });
+    }
+
+    public CompletableFuture<Void> addMember(String project, String member){
+        JsonObject request = request("add-member");
+        request.addProperty("projectname", project);
+        request.addProperty("new-member", member);
+        return call(request).thenAccept(r -> {});
+    }
+
+    public CompletableFuture<List<String>> showMembers(String project){
+        JsonObject request = request("show-members");
+        request.addProperty("projectname", project);
+        return call(request).thenApply(r -> strings(r.getAsJsonArray("members")));
+    }
+
+    public CompletableFuture<Void> addCard(String project, String card, String description){
+        JsonObject request = request("add-card");
+        request.addProperty("projectname", project);
+        request.addProperty("cardname", card);
+        request.addProperty("cardesc", description);
+        return call(request).thenAccept(r -> {});
+    }
+
+    public CompletableFuture<CardInfo> showCard(String project, String card){
+        JsonObject request = request("show-card");
+        request.addProperty("projectname", project);
+        request.addProperty("cardname", card);
+        return call(request).thenApply(r -> {
+            JsonObject info = r.getAsJsonObject("card-info");
+            return new CardInfo(info.get("name").getAsString(), info.get("currentlist").getAsString(),
+                    info.get("description").getAsString());
+        });
+    }
+
+    public CompletableFuture<Void> moveCard(String project, String card, String from, String to){
+        JsonObject request = request("move-card");
+        request.addProperty("projectname", project);
+        request.addProperty("cardname", card);
+        request.addProperty("from", from);
+        request.addProperty("to", to);
+        return call(request).thenAccept(r -> {});
+    }
+
+    /** fetches every card of project, page by page. */
+    public CompletableFuture<Board> listCards(String project){
+        return listCards(project, null, new LinkedHashMap<>());
+    }
+
+    private CompletableFuture<Board> listCards(String project, String cursor, Map<String, CardInfo> cards){
+        JsonObject request = request("list-cards");
+        request.addProperty("projectname", project);
+        request.addProperty("limit", PAGE_SIZE);
+        if(cursor != null) request.addProperty("cursor", cursor);
+        return call(request).thenCompose(r -> {
+            for(CardInfo c : cards(r.getAsJsonArray("card-list"))) cards.put(c.getName(), c);
+            if(r.has("next-cursor")) return listCards(project, r.get("next-cursor").getAsString(), cards);
+            return CompletableFuture.completedFuture(new Board(project, -1, cards, null));
+        });
+    }
+
+    /**
+     * Brings a board up to date, downloading only cards changed since it was synced.
+     * @param board board returned by an earlier syncProject, or null to get a full board.
+     */
+    public CompletableFuture<Board> syncProject(String project, Board board){
+        JsonObject request = request("sync-project");
+        request.addProperty("projectname", project);
+        if(board != null && board.getVersion() >= 0) request.addProperty("version", board.getVersion());
+        return call(request).thenApply(r -> {
+            long version = r.get("version").getAsLong();
+            boolean full = r.get("full").getAsBoolean();
+            List<String> members = r.has("members") ? strings(r.getAsJsonArray("members")) : null;
+            Board base = board != null ? board : new Board(project, -1, new LinkedHashMap<>(), null);
+            return base.apply(version, full, cards(r.getAsJsonArray("card-list")), members);
+        });
+    }
+
+    /** fetches every event of card, page by page. */
+    public CompletableFuture<List<CardEvent>> getCardHistory(String project, String card){
+        return getCardHistory(project, card, null, new ArrayList<>());
+    }
+
+    private CompletableFuture<List<CardEvent>> getCardHistory(String project, String card, String cursor, List<CardEvent> events){
+        JsonObject request = request("get-card-history");
+        request.addProperty("projectname", project);
+        request.addProperty("cardname", card);
+        request.addProperty("limit", PAGE_SIZE);
+        if(cursor != null) request.addProperty("cursor", cursor);
+        return call(request).thenCompose(r -> {
+            for(JsonElement e : r.getAsJsonArray("card-history")){
+                JsonObject event = e.getAsJsonObject();
+                events.add(new CardEvent(event.get("date").getAsLong(), event.get("from").getAsString(),
+                        event.get("to").getAsString()));
+            }
+            if(r.has("next-cursor")) return getCardHistory(project, card, r.get("next-cursor").getAsString(), events);
+            return CompletableFuture.completedFuture(events);
+        });
+    }
+
+    /**
+     * Gets card events of project pushed as they happen, instead of polling listCards.
+     * @param listener called on the reader thread for each event of project, and for events-missed ones.
+     * @return future completed with project version at subscription time.
+     */
+    public CompletableFuture<Long> subscribe(String project, Consumer<BoardEvent> listener){
+        JsonObject request = request("subscribe");
+        request.addProperty("projectname", project);
+        //listening before request is sent: events may come right after the response
+        listeners.put(project, listener);
+        return call(request)
+                .thenApply(r -> r.get("version").getAsLong())
+                .whenComplete((v, e) -> {
+                    if(e != null) listeners.remove(project, listener);
+                });
+    }
+
+    /**
+     * @param handler called on the reader thread with the event a listener threw on, and what it threw.
+     *                By default failures are logged (java.util.logging), reading goes on either way.
+     */
+    public void setListenerErrorHandler(BiConsumer<BoardEvent, RuntimeException> handler){
+        this.listenerErrorHandler = handler;
+    }
+
+    public CompletableFuture<Void> unsubscribe(String project){
+        JsonObject request = request("unsubscribe");
+        request.addProperty("projectname", project);
+        return call(request).thenAccept(r -> listeners.remove(project));
+    }
+
+    public CompletableFuture<Void> deleteProject(String project){
+        JsonObject request = request("delete-project");
+        request.addProperty("projectname", project);
+        return call(request).thenAccept(r -> {});
+    }
+
+    /**
+     * runs requests in order in a single round trip, see batch request. Requests are sent on behalf of
+     * logged in user.
+     * @return response of each request, failed ones included: check their "return-code".
+     */
+    public CompletableFuture<List<JsonObject>> batch(List<JsonObject> requests){
+        JsonObject request = request("batch");
+        JsonArray array = new JsonArray();
+        for(JsonObject r : requests) array.add(r);
+        request.add("requests", array);
+        return call(request).thenApply(r -> {
+            List<JsonObject> results = new ArrayList<>();
+            for(JsonElement e : r.getAsJsonArray("results")) results.add(e.getAsJsonObject());
+            return results;
+        });
+    }
+
+    /** a request for method on behalf of logged in user, to be completed with method parameters. */
+    public JsonObject request(String method){
+        JsonObject request = new JsonObject();
+        request.addProperty("method", method);
+        if(token != null) request.addProperty("token", token);
+        else if(username != null) request.addProperty("username", username);
+        return request;
+    }
+
+    /**
+     * Sends a raw request, tagging it with a fresh id.
+     * @return future completed with the whole response, or exceptionally if its return code is an error.
+     */
+    public CompletableFuture<JsonObject> call(JsonObject request){
+        String id = Long.toString(nextId.incrementAndGet());
+        request.addProperty("id", id);
+        String method = request.get("method").getAsString();
+        CompletableFuture<JsonObject> response = new CompletableFuture<>();
+        try {
+            ByteBuffer frame = binary ? Frames.encode(BinaryProtocol.encodeRequest(request)) : Frames.encode(request.toString());
+            synchronized (writeLock){
+                synchronized (pending){
+                    if(closed) throw new IOException("Connection closed");
+                    pending.put(id, response);
+                }
+                while (frame.hasRemaining()) socketChannel.write(frame);
+            }
+        }catch (IOException | IllegalArgumentException e){
+            synchronized (pending){
+                pending.remove(id);
+            }
+            response.completeExceptionally(e);
+            return response;
+        }
+        return response.thenCompose(r -> {
+            int code = r.has("return-code") ? r.get("return-code").getAsInt() : 200;
+            if(code >= 200 && code < 300) return CompletableFuture.completedFuture(r);
+            return CompletableFuture.failedFuture(new RequestFailedException(method, code));
+        });
+    }
+
+    /** reader thread: completes pending requests as their responses arrive. */
+    private void read(){
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        IOException failure = null;
+        try {
+            while (!closed) {
+                buffer.clear();
+                if (socketChannel.read(buffer) < 0) break;
+                buffer.flip();
+                decoder.feed(buffer);
+                byte[] frame;
+                while ((frame = decoder.next()) != null) {
+                    JsonObject message = parse(frame);
+                    if(message.has("event")) notify(new BoardEvent(message));
+                    else complete(message);
+                }
+            }
+        }catch (IOException e){
+            failure = e;
+        }
+        fail(failure != null ? failure : new IOException("Connection closed by server"));
+    }
+
+    private JsonObject parse(byte[] frame) throws IOException {
+        //a JSON object always starts with '{': the answer to hello is still JSON even once binary is chosen.
+        if(frame.length > 0 && frame[0] != '{') return BinaryProtocol.decodeResponse(frame).getAsJsonObject();
+        return gson.fromJson(new String(frame, StandardCharsets.UTF_8), JsonObject.class);
+    }
+
+    private void complete(JsonObject response){
+        CompletableFuture<JsonObject> request;
+        synchronized (pending){
+            if(response.has("id")) request = pending.remove(response.get("id").getAsString());
+            else {
+                //requests the server could not even decode are answered without id, responses are in order.
+                Iterator<CompletableFuture<JsonObject>> oldest = pending.values().iterator();
+                request = oldest.hasNext() ? oldest.next() : null;
+                if(request != null) oldest.remove();
+            }
+        }
+        if(request != null) request.complete(response);
+    }
+
+    private void notify(BoardEvent event){
+        if(event.getProject() != null){
+            Consumer<BoardEvent> listener = listeners.get(event.getProject());
+            if(listener != null) notify(listener, event);
+        }
+        else for(Consumer<BoardEvent> listener : listeners.values()) notify(listener, event);
+    }
+
+    /** a failing listener must stop neither other listeners nor responses from being read. */
+    private void notify(Consumer<BoardEvent> listener, BoardEvent event){
+        try {
+            listener.accept(event);
+        }catch (RuntimeException e){
+            try {
+                listenerErrorHandler.accept(event, e);
+            }catch (RuntimeException handlerFailure){
+                logger.log(Level.WARNING, "board event listener error handler failed", handlerFailure);
+            }
+        }
+    }
+
+    private void fail(IOException e){
+        List<CompletableFuture<JsonObject>> failed;
+        synchronized (pending){
+            closed = true;
+            failed = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        for(CompletableFuture<JsonObject> f : failed) f.completeExceptionally(e);
+    }
+
+    /** closes connection, failing requests still waiting for a response. */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        socketChannel.close();
+        fail(new IOException("Client closed"));
+    }
+
+    private static List<String> strings(JsonArray array){
+        List<String> strings = new ArrayList<>();
+        for(JsonElement e : array) strings.add(e.getAsString());
+        return strings;
+    }
+
+    private static List<CardInfo> cards(JsonArray array){
+        List<CardInfo> cards = new ArrayList<>();
+        for(JsonElement e : array){
+            JsonObject c = e.getAsJsonObject();
+            cards.add(new CardInfo(c.get("card-name").getAsString(), c.get("card-state").getAsString(),
+                    c.has("card-desc") ? c.get("card-desc").getAsString() : null));
+        }
+        return cards;
+    }
+}
@@ -0,0 +1,15 @@
+package exceptions;
+
+/** a request was answered with an error return code, see client.sdk.WorthAsyncClient. */
+public class RequestFailedException extends Exception{
+    private final int returnCode;
+
+    public RequestFailedException(String method, int returnCode){
+        super(method + " failed with return code " + returnCode);
+        this.returnCode = returnCode;
+    }
+
+    public int getReturnCode(){
+        return returnCode;
+    }
+}
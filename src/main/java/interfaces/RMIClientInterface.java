@@ -4,7 +4,8 @@ import java.rmi.Remote;
 import java.rmi.RemoteException;
 
 public interface RMIClientInterface extends Remote {
-    void notifyUser(String username, Boolean status) throws RemoteException;
+    /** user registered or changed status, version being the presence version of the change. */
+    void notifyUser(String username, Boolean status, long version) throws RemoteException;
     void notifyChat(String address, String projectname) throws RemoteException;
     void leaveGroup(String address, String projectname) throws RemoteException;
 
@@ -0,0 +1,58 @@
+package loadgen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Weighted choice among the commands simulated users send, parsed from a spec such as
+ * "move-card=40,list-cards=30,show-card=30": each command is picked with probability weight / total weight.
+ */
+public class CommandMix {
+    public static final String DEFAULT = "move-card=40,list-cards=20,show-card=20,add-card=10,get-card-history=10";
+
+    /** commands a mix may contain. */
+    public static final List<String> COMMANDS = List.of(
+            "move-card", "list-cards", "show-card", "add-card", "get-card-history",
+            "sync-project", "list-projects", "show-members");
+
+    private final List<String> commands = new ArrayList<>();
+    private final int[] cumulative;
+    private final int total;
+
+    /** @throws IllegalArgumentException if spec is malformed or names an unknown command. */
+    public CommandMix(String spec){
+        List<Integer> weights = new ArrayList<>();
+        for(String entry : spec.split(",")){
+            String[] kv = entry.trim().split("=");
+            if(kv.length != 2) throw new IllegalArgumentException("malformed mix entry " + entry);
+            if(!COMMANDS.contains(kv[0])) throw new IllegalArgumentException("unknown command " + kv[0]);
+            int weight = Integer.parseInt(kv[1]);
+            if(weight < 0) throw new IllegalArgumentException("negative weight for " + kv[0]);
+            if(weight == 0) continue;
+            commands.add(kv[0]);
+            weights.add(weight);
+        }
+        if(commands.isEmpty()) throw new IllegalArgumentException("empty mix");
+
+        cumulative = new int[weights.size()];
+        int sum = 0;
+        for(int i = 0; i < cumulative.length; i++){
+            sum += weights.get(i);
+            cumulative[i] = sum;
+        }
+        total = sum;
+    }
+
+    public String pick(Random random){
+        int r = random.nextInt(total);
+        for(int i = 0; i < cumulative.length; i++) if(r < cumulative[i]) return commands.get(i);
+        return commands.get(commands.size() - 1);
+    }
+
+    /** commands in this mix, in spec order. */
+    public List<String> getCommands(){
+        return Collections.unmodifiableList(commands);
+    }
+}
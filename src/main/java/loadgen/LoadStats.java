@@ -0,0 +1,50 @@
+package loadgen;
+
+import server.metrics.LatencyHistogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latencies and errors of each command, recorded only while measuring: warm up requests are left out.
+ */
+public class LoadStats {
+    private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+    private final Map<String, AtomicLong> errors = new LinkedHashMap<>();
+    private final AtomicLong completed = new AtomicLong();
+    private volatile boolean recording = false;
+
+    /** @param commands every command that may be recorded, map is never modified afterwards. */
+    public LoadStats(Iterable<String> commands){
+        for(String c : commands){
+            latencies.put(c, new LatencyHistogram());
+            errors.put(c, new AtomicLong());
+        }
+    }
+
+    public void setRecording(boolean recording){
+        this.recording = recording;
+    }
+
+    /** @param failed true if command was answered with an error code. */
+    public void record(String command, long nanos, boolean failed){
+        if(!recording) return;
+        latencies.get(command).record(nanos);
+        if(failed) errors.get(command).incrementAndGet();
+        completed.incrementAndGet();
+    }
+
+    /** commands completed while recording, failed ones included. */
+    public long getCompleted(){
+        return completed.get();
+    }
+
+    public Map<String, LatencyHistogram> getLatencies(){
+        return latencies;
+    }
+
+    public long getErrors(String command){
+        return errors.get(command).get();
+    }
+}
@@ -0,0 +1,163 @@
+package loadgen;
+
+import client.sdk.WorthAsyncClient;
+import com.google.gson.JsonObject;
+import exceptions.RequestFailedException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A user hammering its project in a closed loop: next command is sent as soon as previous one is answered.
+ * Users move only cards they created themselves, so their moves never conflict with other users' ones.
+ * Loop runs on the client reader thread, completing a response sends next request.
+ */
+public class SimulatedUser {
+    private final String name;
+    private final WorthAsyncClient client;
+    private final String project;
+    private final CommandMix mix;
+    private final LoadStats stats;
+
+    //cards created by this user, and list each one is in
+    private final List<String> cards = new ArrayList<>();
+    private final Map<String, String> lists = new HashMap<>();
+    private int created = 0;
+    private int nextMove = 0;
+    private long version = -1;
+
+    private volatile boolean running = false;
+    private CountDownLatch stopped;
+
+    public SimulatedUser(String name, WorthAsyncClient client, String project, CommandMix mix, LoadStats stats){
+        this.name = name;
+        this.client = client;
+        this.project = project;
+        this.mix = mix;
+        this.stats = stats;
+    }
+
+    public String getName(){
+        return name;
+    }
+
+    public WorthAsyncClient getClient(){
+        return client;
+    }
+
+    public String getProject(){
+        return project;
+    }
+
+    /** creates cards this user will move around. */
+    public CompletableFuture<Void> createCards(int count){
+        CompletableFuture<?>[] adds = new CompletableFuture<?>[count];
+        for(int i = 0; i < count; i++){
+            String card = nextCardName();
+            adds[i] = client.addCard(project, card, "load test card").thenRun(() -> cardCreated(card));
+        }
+        return CompletableFuture.allOf(adds);
+    }
+
+    /** starts sending commands, until stop. */
+    public void start(){
+        running = true;
+        stopped = new CountDownLatch(1);
+        next();
+    }
+
+    /** @return latch released once the request in flight, if any, has been answered. */
+    public CountDownLatch stop(){
+        running = false;
+        return stopped;
+    }
+
+    private void next(){
+        if(!running){
+            stopped.countDown();
+            return;
+        }
+        String command = mix.pick(ThreadLocalRandom.current());
+        JsonObject request = request(command);
+        long start = System.nanoTime();
+        client.call(request).whenComplete((response, error) -> {
+            stats.record(command, System.nanoTime() - start, error != null);
+            if(error == null) completed(command, request, response);
+            //connection is gone: this user is done (and next call would fail right away, recursing)
+            else if(!(error.getCause() instanceof RequestFailedException)) running = false;
+            next();
+        });
+    }
+
+    private JsonObject request(String command){
+        JsonObject request = client.request(command);
+        Random random = ThreadLocalRandom.current();
+        switch (command){
+            case "move-card": {
+                String card = cards.get(nextMove);
+                String from = lists.get(card);
+                request.addProperty("projectname", project);
+                request.addProperty("cardname", card);
+                request.addProperty("from", from);
+                request.addProperty("to", nextList(from));
+                break;
+            }
+            case "add-card":
+                request.addProperty("projectname", project);
+                request.addProperty("cardname", nextCardName());
+                request.addProperty("cardesc", "load test card");
+                break;
+            case "show-card":
+            case "get-card-history":
+                request.addProperty("projectname", project);
+                request.addProperty("cardname", cards.get(random.nextInt(cards.size())));
+                break;
+            case "sync-project":
+                request.addProperty("projectname", project);
+                if(version >= 0) request.addProperty("version", Long.toString(version));
+                break;
+            case "list-cards":
+            case "show-members":
+                request.addProperty("projectname", project);
+                break;
+        }
+        return request;
+    }
+
+    private void completed(String command, JsonObject request, JsonObject response){
+        switch (command){
+            case "move-card":
+                lists.put(request.get("cardname").getAsString(), request.get("to").getAsString());
+                nextMove = (nextMove + 1) % cards.size();
+                break;
+            case "add-card":
+                cardCreated(request.get("cardname").getAsString());
+                break;
+            case "sync-project":
+                version = response.get("version").getAsLong();
+                break;
+        }
+    }
+
+    private String nextCardName(){
+        return name + "-c" + created++;
+    }
+
+    private void cardCreated(String card){
+        synchronized (cards){
+            cards.add(card);
+            lists.put(card, "todo");
+        }
+    }
+
+    /** a move always allowed from list: cards cycle between inprogress and toberevised, never reaching done. */
+    private static String nextList(String from){
+        return from.equals("inprogress") ? "toberevised" : "inprogress";
+    }
+}
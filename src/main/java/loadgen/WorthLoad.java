@@ -0,0 +1,279 @@
+package loadgen;
+
+import client.sdk.WorthAsyncClient;
+import interfaces.RMIServerInterface;
+import org.apache.commons.cli.*;
+import server.Server;
+import server.ServerConfig;
+import server.metrics.LatencyHistogram;
+import server.utils.Log;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Load generator: simulated users sign up through RMI, log in over TCP, then send a configurable mix of
+ * commands as fast as the server answers them. Reports throughput and latency percentiles of each command.
+ * By default it runs its own server in process, on a temporary project directory, so a run needs nothing
+ * but localhost: e.g. java -jar LoadGen-jar-with-dependencies.jar -u 2000 -s 60 -x move-card=70,list-cards=30
+ */
+public class WorthLoad {
+    private static final String PASSWORD = "load";
+
+    private static int users = 1000;
+    private static int groupSize = 10;
+    private static int cardsPerUser = 5;
+    private static CommandMix mix = new CommandMix(CommandMix.DEFAULT);
+    private static int seconds = 30;
+    private static int warmup = 5;
+    private static boolean binary = false;
+    private static boolean external = false;
+    private static final ServerConfig config = new ServerConfig();
+
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        options.addOption("u", "users",       true,  "Simulated users, each one on a connection of its own - default 1000");
+        options.addOption("g", "group-size",  true,  "Users sharing a project - default 10");
+        options.addOption("k", "cards",       true,  "Cards each user creates before the run - default 5");
+        options.addOption("x", "mix",         true,  "Command mix, as command=weight pairs - default " + CommandMix.DEFAULT);
+        options.addOption("s", "seconds",     true,  "Measured run length in seconds - default 30");
+        options.addOption("W", "warmup",      true,  "Seconds of load before measuring - default 5");
+        options.addOption("P", "protocol",    true,  "TCP protocol: json or binary - default json");
+        options.addOption("X", "external",    false, "Load a running server instead of starting one in process");
+        options.addOption("b", "address",     true,  "Server address - default localhost");
+        options.addOption("p", "tcp-port",    true,  "Server TCP Port   - default 6789");
+        options.addOption("r", "rmi-port",    true,  "Server RMI Port   - default 6790");
+        options.addOption("n", "registry-name", true, "RMI Registry name   - default WORTH-RMI");
+        options.addOption("e", "engine",      true,  "In process server engine: nio or virtual - default nio");
+        options.addOption("t", "reactor-threads", true, "In process server selector threads - default available cores");
+        options.addOption("w", "worker-threads", true, "In process server worker threads - default 0");
+        options.addOption("h", "help",        false, "Prompt help dialog");
+
+        HelpFormatter helpFormatter = new HelpFormatter();
+        try {
+            CommandLine commandLine = new DefaultParser().parse(options, args);
+            if(commandLine.hasOption("h")) throw new ParseException("help dialog");
+
+            if(commandLine.hasOption("u")) users = Integer.parseInt(commandLine.getOptionValue("u"));
+            if(commandLine.hasOption("g")) groupSize = Integer.parseInt(commandLine.getOptionValue("g"));
+            if(commandLine.hasOption("k")) cardsPerUser = Integer.parseInt(commandLine.getOptionValue("k"));
+            if(commandLine.hasOption("s")) seconds = Integer.parseInt(commandLine.getOptionValue("s"));
+            if(commandLine.hasOption("W")) warmup = Integer.parseInt(commandLine.getOptionValue("W"));
+            if(commandLine.hasOption("x")){
+                try {
+                    mix = new CommandMix(commandLine.getOptionValue("x"));
+                }catch (IllegalArgumentException e){
+                    throw new ParseException("invalid mix: " + e.getMessage());
+                }
+            }
+            if(commandLine.hasOption("P")){
+                String protocol = commandLine.getOptionValue("P");
+                if (!protocol.equals("json") && !protocol.equals("binary")) throw new ParseException("unknown protocol");
+                binary = protocol.equals("binary");
+            }
+            external = commandLine.hasOption("X");
+            if(commandLine.hasOption("b")) config.address = commandLine.getOptionValue("b");
+            if(commandLine.hasOption("p")) config.tcpPort = Integer.parseInt(commandLine.getOptionValue("p"));
+            if(commandLine.hasOption("r")) config.rmiPort = Integer.parseInt(commandLine.getOptionValue("r"));
+            if(commandLine.hasOption("n")) config.registryName = commandLine.getOptionValue("n");
+            if(commandLine.hasOption("e")){
+                try {
+                    config.engine = ServerConfig.Engine.valueOf(commandLine.getOptionValue("e").toUpperCase());
+                }catch (IllegalArgumentException e){
+                    throw new ParseException("unknown engine");
+                }
+            }
+            if(commandLine.hasOption("t")) config.reactorThreads = Integer.parseInt(commandLine.getOptionValue("t"));
+            if(commandLine.hasOption("w")) config.workerThreads = Integer.parseInt(commandLine.getOptionValue("w"));
+
+            if(users < 1 || groupSize < 1 || cardsPerUser < 1) throw new ParseException("invalid load shape");
+            if(seconds < 1 || warmup < 0) throw new ParseException("invalid run length");
+            if(config.reactorThreads < 1 || config.workerThreads < 0) throw new ParseException("invalid thread count");
+
+        }catch (ParseException | NumberFormatException p){
+            System.err.println(p.getMessage());
+            helpFormatter.printHelp("java loadgen.WorthLoad", options);
+            System.exit(-1);
+        }
+
+        Path projectDir = null;
+        if(!external) projectDir = startServer();
+
+        try {
+            run();
+        }finally {
+            if(projectDir != null) delete(projectDir);
+        }
+        System.exit(0);
+    }
+
+    /** starts a server in this process, on a fresh project directory, sized for the simulated users. */
+    private static Path startServer() throws IOException {
+        Path projectDir = Files.createTempDirectory("worth-load");
+        config.projectDir = projectDir.toString();
+        config.maxConnections = Math.max(config.maxConnections, users + 16);
+        config.maxConnectionsPerAddress = config.maxConnections;
+        //every simulated user logs in from this address
+        config.addressLoginsPerMinute = 0;
+        Log.setLevel(Log.Level.WARNING);
+
+        Server server = new Server(config);
+        Thread t = new Thread(server::start, "worth-server");
+        t.setDaemon(true);
+        t.start();
+
+        //TCP socket is bound from construction on, server is ready once its RMI stub is bound
+        long deadline = System.currentTimeMillis() + 10_000;
+        while(true){
+            try {
+                LocateRegistry.getRegistry(config.address, config.rmiPort).lookup(config.registryName);
+                return projectDir;
+            }catch (RemoteException | NotBoundException e){
+                if(System.currentTimeMillis() > deadline) throw new IOException("server did not start", e);
+                try {
+                    Thread.sleep(50);
+                }catch (InterruptedException interrupted){
+                    throw new IOException(interrupted);
+                }
+            }
+        }
+    }
+
+    private static void run() throws Exception {
+        LoadStats stats = new LoadStats(mix.getCommands());
+        //names unique to this run, so runs against the same server do not collide
+        String prefix = "load" + Long.toString(System.currentTimeMillis(), 36);
+
+        System.out.printf("setting up %d users in %d projects%n", users, (users + groupSize - 1) / groupSize);
+        LatencyHistogram signUps = new LatencyHistogram();
+        LatencyHistogram logins = new LatencyHistogram();
+        List<SimulatedUser> simulated = setUp(prefix, stats, signUps, logins);
+
+        System.out.printf("warming up for %ds%n", warmup);
+        for(SimulatedUser u : simulated) u.start();
+        Thread.sleep(warmup * 1000L);
+
+        System.out.printf("measuring for %ds%n", seconds);
+        stats.setRecording(true);
+        long start = System.nanoTime();
+        long intervalStart = start;
+        long last = 0;
+        for(int s = 1; s <= seconds; s++){
+            Thread.sleep(Math.max(0, start + s * 1_000_000_000L - System.nanoTime()) / 1_000_000);
+            if(s % 5 == 0 || s == seconds){
+                long now = System.nanoTime();
+                long completed = stats.getCompleted();
+                System.out.printf("  %3ds  %10.0f ops/s%n", s, (completed - last) / ((now - intervalStart) / 1e9));
+                last = completed;
+                intervalStart = now;
+            }
+        }
+        stats.setRecording(false);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        List<CountDownLatch> stopped = new ArrayList<>();
+        for(SimulatedUser u : simulated) stopped.add(u.stop());
+        for(CountDownLatch l : stopped) l.await(10, TimeUnit.SECONDS);
+        for(SimulatedUser u : simulated){
+            try {
+                u.getClient().close();
+            }catch (IOException ignored){ }
+        }
+
+        report(stats, elapsed, signUps, logins);
+    }
+
+    private static List<SimulatedUser> setUp(String prefix, LoadStats stats, LatencyHistogram signUps, LatencyHistogram logins) throws Exception {
+        RMIServerInterface rmi = (RMIServerInterface) LocateRegistry.getRegistry(config.address, config.rmiPort)
+                .lookup(config.registryName);
+
+        //sign up is a blocking RMI call: a few threads keep the server busy
+        ExecutorService signUpPool = Executors.newFixedThreadPool(16);
+        List<CompletableFuture<SimulatedUser>> connected = new ArrayList<>();
+        for(int i = 0; i < users; i++){
+            String name = prefix + "-u" + i;
+            String project = prefix + "-p" + (i / groupSize);
+            connected.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    long t = System.nanoTime();
+                    if(rmi.signUp(name, PASSWORD) != 1) throw new IllegalStateException("sign up refused for " + name);
+                    signUps.record(System.nanoTime() - t);
+                    WorthAsyncClient client = WorthAsyncClient.connect(config.address, config.tcpPort, binary);
+                    t = System.nanoTime();
+                    client.login(name, PASSWORD).join();
+                    logins.record(System.nanoTime() - t);
+                    return new SimulatedUser(name, client, project, mix, stats);
+                }catch (IOException e){
+                    throw new IllegalStateException("cannot set up " + name, e);
+                }
+            }, signUpPool));
+        }
+        List<SimulatedUser> simulated = new ArrayList<>();
+        for(CompletableFuture<SimulatedUser> f : connected) simulated.add(f.join());
+        signUpPool.shutdown();
+
+        //first user of each group creates its project, then adds the others
+        List<CompletableFuture<Void>> projects = new ArrayList<>();
+        for(int first = 0; first < users; first += groupSize){
+            SimulatedUser owner = simulated.get(first);
+            CompletableFuture<Void> project = owner.getClient().createProject(owner.getProject());
+            for(int i = first + 1; i < Math.min(first + groupSize, users); i++){
+                String member = simulated.get(i).getName();
+                project = project.thenCompose(v -> owner.getClient().addMember(owner.getProject(), member));
+            }
+            projects.add(project);
+        }
+        CompletableFuture.allOf(projects.toArray(new CompletableFuture<?>[0])).join();
+
+        List<CompletableFuture<Void>> cards = new ArrayList<>();
+        for(SimulatedUser u : simulated) cards.add(u.createCards(cardsPerUser));
+        CompletableFuture.allOf(cards.toArray(new CompletableFuture<?>[0])).join();
+        return simulated;
+    }
+
+    private static void report(LoadStats stats, double elapsed, LatencyHistogram signUps, LatencyHistogram logins){
+        System.out.printf("%n%d users, %s protocol, %s server, %.1fs measured%n", users, binary ? "binary" : "json",
+                external ? "external" : "in process " + config.engine.name().toLowerCase(), elapsed);
+        System.out.printf("%-18s %10s %8s %10s %9s %9s %9s %9s%n",
+                "command", "count", "errors", "ops/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        long total = 0;
+        long errors = 0;
+        for(String command : stats.getLatencies().keySet()){
+            LatencyHistogram h = stats.getLatencies().get(command);
+            long e = stats.getErrors(command);
+            printRow(command, h, e, h.getCount() / elapsed);
+            total += h.getCount();
+            errors += e;
+        }
+        System.out.printf("%-18s %10d %8d %10.0f%n", "total", total, errors, total / elapsed);
+        System.out.println();
+        printRow("sign-up (setup)", signUps, 0, -1);
+        printRow("login (setup)", logins, 0, -1);
+    }
+
+    private static void printRow(String name, LatencyHistogram h, long errors, double throughput){
+        System.out.printf("%-18s %10d %8d %10s %9.2f %9.2f %9.2f %9.2f%n", name, h.getCount(), errors,
+                throughput < 0 ? "-" : String.format("%.0f", throughput),
+                h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(99) / 1e6,
+                h.getValueAtPercentile(99.9) / 1e6, h.getMax() / 1e6);
+    }
+
+    private static void delete(Path dir){
+        try (Stream<Path> files = Files.walk(dir)){
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }catch (IOException ignored){ }
+    }
+}
@@ -0,0 +1,120 @@
+package server;
+
+import server.protocol.BinaryResponseWriter;
+import server.protocol.JsonResponseWriter;
+import server.protocol.ResponseWriter;
+import shared.Card;
+import shared.protocol.Frames;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Card events pushed to connections subscribed to a project (see subscribe request), as frames multiplexed
+ * with responses on the same connection. Events carry an "event" key and no "return-code", so clients
+ * tell them apart from responses. Each event is encoded once per protocol, whatever the number of subscribers.
+ * A subscriber too slow to take its events loses them, and is sent an "events-missed" event before the
+ * next one it gets: it can then catch up through sync-project.
+ */
+public class BoardEvents {
+    private static final byte[] EVENTS_MISSED_JSON = encode(false, out -> out.name("event").value("events-missed"));
+    private static final byte[] EVENTS_MISSED_BINARY = encode(true, out -> out.name("event").value("events-missed"));
+
+    //subscribed connections by project name
+    private final ConcurrentHashMap<String, Set<Connection>> subscribers = new ConcurrentHashMap<>();
+
+    public void subscribe(String project, Connection connection){
+        connection.addSubscription(project);
+        subscribers.computeIfAbsent(project, p -> ConcurrentHashMap.newKeySet()).add(connection);
+        //connection may have been closed meanwhile, after its subscriptions were dropped
+        if(!connection.getChannel().isOpen()) unsubscribeAll(connection);
+    }
+
+    public void unsubscribe(String project, Connection connection){
+        connection.removeSubscription(project);
+        subscribers.computeIfPresent(project, (p, connections) -> {
+            connections.remove(connection);
+            return connections.isEmpty() ? null : connections;
+        });
+    }
+
+    /** drops every subscription of a closed connection. */
+    public void unsubscribeAll(Connection connection){
+        for(String project : connection.getSubscriptions()) unsubscribe(project, connection);
+    }
+
+    /** project is gone, no more events will come. */
+    public void dropProject(String project){
+        Set<Connection> connections = subscribers.remove(project);
+        if(connections != null) for(Connection c : connections) c.removeSubscription(project);
+    }
+
+    public void cardCreated(String project, Card card, long version){
+        publish(project, out -> {
+            out.name("event").value("card-created");
+            out.name("projectname").value(project);
+            out.name("card-name").value(card.getName());
+            out.name("card-state").value(card.getStatus());
+            out.name("card-desc").value(card.getDescription());
+            out.name("version").value(version);
+        });
+    }
+
+    public void cardMoved(String project, String card, String from, String to, long version){
+        publish(project, out -> {
+            out.name("event").value("card-moved");
+            out.name("projectname").value(project);
+            out.name("card-name").value(card);
+            out.name("from").value(from);
+            out.name("to").value(to);
+            out.name("version").value(version);
+        });
+    }
+
+    /** frame telling a subscriber some events were dropped. */
+    static ByteBuffer eventsMissed(boolean binary){
+        return ByteBuffer.wrap(binary ? EVENTS_MISSED_BINARY : EVENTS_MISSED_JSON);
+    }
+
+    private void publish(String project, Consumer<ResponseWriter> event){
+        Set<Connection> connections = subscribers.get(project);
+        if(connections == null || connections.isEmpty()) return;
+
+        byte[] json = null;
+        byte[] binary = null;
+        for(Connection c : connections){
+            byte[] frame;
+            if(c.isBinary()) frame = binary != null ? binary : (binary = encode(true, event));
+            else frame = json != null ? json : (json = encode(false, event));
+            //heap buffers over the shared frame, never given back to the buffer pool.
+            c.push(Collections.singletonList(ByteBuffer.wrap(frame)));
+        }
+    }
+
+    /** @return whole frame, header included. */
+    private static byte[] encode(boolean binary, Consumer<ResponseWriter> event){
+        byte[] payload;
+        if(binary){
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ResponseWriter out = new BinaryResponseWriter(bytes);
+            out.beginObject();
+            event.accept(out);
+            out.endObject();
+            payload = bytes.toByteArray();
+        } else {
+            StringWriter string = new StringWriter();
+            ResponseWriter out = new JsonResponseWriter(string);
+            out.beginObject();
+            event.accept(out);
+            out.endObject();
+            payload = string.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        return Frames.encode(payload).array();
+    }
+}
@@ -0,0 +1,151 @@
+package server;
+
+import interfaces.RMIClientInterface;
+import server.metrics.LatencyHistogram;
+import server.metrics.Metrics;
+
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Callbacks waiting to be sent to a registered client (see RMIServer). They are sent in order from the callback
+ * pool, by one thread at a time per client, so a slow client only delays its own callbacks.
+ * Presence changes of a user still waiting are coalesced: client gets the latest one only, its version
+ * telling the client it missed nothing (see Presence). A client whose queue fills up has fallen behind and is dropped.
+ */
+class CallbackQueue implements Runnable {
+    //callbacks sent before giving the thread to other clients
+    private static final int BATCH = 16;
+    private static final LatencyHistogram callbackTimer = Metrics.timer("rmi.callback");
+
+    interface Callback {
+        void send(RMIClientInterface client) throws RemoteException;
+    }
+
+    private static class PresenceChange implements Callback {
+        final String username;
+        boolean status;
+        long version;
+
+        PresenceChange(String username, boolean status, long version){
+            this.username = username;
+            this.status = status;
+            this.version = version;
+        }
+
+        @Override
+        public void send(RMIClientInterface client) throws RemoteException {
+            client.notifyUser(username, status, version);
+        }
+    }
+
+    private final RMIServer server;
+    private final RMIClientInterface client;
+    private final String username;
+    private final Executor executor;
+    private final int capacity;
+
+    private final ArrayDeque<Callback> pending = new ArrayDeque<>();
+    //presence changes in pending, by user they are about
+    private final HashMap<String, PresenceChange> presence = new HashMap<>();
+    private boolean scheduled = false;
+    private boolean closed = false;
+
+    /** @param username user logged in on client, asked once at registration. */
+    CallbackQueue(RMIServer server, RMIClientInterface client, String username, Executor executor, int capacity){
+        this.server = server;
+        this.client = client;
+        this.username = username;
+        this.executor = executor;
+        this.capacity = capacity;
+    }
+
+    RMIClientInterface getClient(){
+        return client;
+    }
+
+    String getUsername(){
+        return username;
+    }
+
+    /**
+     * @return 1 if queued, 0 if merged into a change of the same user still waiting,
+     *         -1 if queue is full or closed: client is to be dropped.
+     */
+    synchronized int offerPresence(String username, boolean status, long version){
+        if(closed) return -1;
+        PresenceChange queued = presence.get(username);
+        if(queued != null){
+            if(version > queued.version){
+                queued.status = status;
+                queued.version = version;
+            }
+            return 0;
+        }
+        if(pending.size() >= capacity) return -1;
+        PresenceChange change = new PresenceChange(username, status, version);
+        presence.put(username, change);
+        pending.add(change);
+        schedule();
+        return 1;
+    }
+
+    /** @return false if queue is full or closed: client is to be dropped. */
+    synchronized boolean offer(Callback callback){
+        if(closed || pending.size() >= capacity) return false;
+        pending.add(callback);
+        schedule();
+        return true;
+    }
+
+    synchronized int size(){
+        return pending.size();
+    }
+
+    /** discards waiting callbacks, nothing is sent afterwards. @return callbacks discarded. */
+    synchronized int close(){
+        closed = true;
+        int discarded = pending.size();
+        pending.clear();
+        presence.clear();
+        return discarded;
+    }
+
+    private void schedule(){
+        if(scheduled) return;
+        scheduled = true;
+        executor.execute(this);
+    }
+
+    @Override
+    public void run() {
+        for(int sent = 0; ; sent++){
+            Callback callback;
+            synchronized (this){
+                if(pending.isEmpty()){
+                    scheduled = false;
+                    return;
+                }
+                //still scheduled, back in line behind other clients
+                if(sent == BATCH){
+                    executor.execute(this);
+                    return;
+                }
+                callback = pending.poll();
+                //change is leaving the queue, later ones go out after it
+                if(callback instanceof PresenceChange) presence.remove(((PresenceChange) callback).username);
+            }
+            long start = System.nanoTime();
+            try {
+                callback.send(client);
+                callbackTimer.record(System.nanoTime() - start);
+            } catch (RemoteException e) {
+                //client no longer available, or it did not answer within callback timeout
+                server.drop(this);
+                return;
+            }
+        }
+    }
+}
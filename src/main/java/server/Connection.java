@@ -0,0 +1,276 @@
+package server;
+
+import shared.protocol.FrameDecoder;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Per-connection state, attached to the SelectionKey of each client SocketChannel.
+ * No read buffer is owned here: reactors read into their own buffer and the decoder only keeps partial frames.
+ */
+public class Connection {
+    private final SocketChannel socketChannel;
+    //client address, counted against per address connection limit until connection is released.
+    private final InetAddress address;
+    private final FrameDecoder decoder;
+    private boolean released = false;
+    //last time (System.nanoTime) client sent bytes or consumed response bytes, see idle reaper.
+    private volatile long lastActivity = System.nanoTime();
+    //protocol negotiated by "hello" request, JSON until then.
+    private volatile boolean binary = false;
+    //user logged in on this connection, if any.
+    private Session session;
+
+    //decoded requests waiting for a worker, see Reactor: at most one worker at a time drains them,
+    //so responses are produced in arrival order.
+    private final ArrayDeque<byte[]> pendingRequests = new ArrayDeque<>();
+    private int pendingRequestBytes = 0;
+    private boolean processing = false;
+    //reactor stopped decoding requests because too many are queued, until workers drain them (see Reactor)
+    private boolean requestsPaused = false;
+
+    //response frames not yet taken by socket send buffer, touched by owning reactor thread only.
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+    private int outboundBytes = 0;
+    private boolean readPaused = false;
+    //a login is being verified off the reactor thread, later requests wait for its response (see Server.respond)
+    private boolean awaitingResponse = false;
+    private SelectionKey key;
+
+    //projects whose card events are pushed to this connection, see BoardEvents.
+    private final Set<String> subscriptions = ConcurrentHashMap.newKeySet();
+    //hands pushed frames to the engine serving this connection, which writes them in between responses.
+    private volatile Consumer<List<ByteBuffer>> pusher;
+    //set when pushed events were dropped because client was not consuming them.
+    private volatile boolean eventsMissed = false;
+    //blocking engine only: pushed frames waiting for a writer, and lock serializing writes (see VirtualThreadEngine)
+    private final ArrayDeque<List<ByteBuffer>> pushes = new ArrayDeque<>();
+    private boolean pushing = false;
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    public Connection(SocketChannel socketChannel, InetAddress address){
+        this.socketChannel = socketChannel;
+        this.address = address;
+        this.decoder = new FrameDecoder();
+    }
+
+    public InetAddress getAddress(){
+        return address;
+    }
+
+    /** @return true only the first time it is called, so connection slots are given back once. */
+    public synchronized boolean release(){
+        if(released) return false;
+        released = true;
+        return true;
+    }
+
+    public long getLastActivity(){
+        return lastActivity;
+    }
+
+    public void touch(){
+        lastActivity = System.nanoTime();
+    }
+
+    public SocketChannel getChannel(){
+        return socketChannel;
+    }
+
+    public FrameDecoder getDecoder(){
+        return decoder;
+    }
+
+    public synchronized Session getSession(){
+        return session;
+    }
+
+    public synchronized void setSession(Session session){
+        this.session = session;
+    }
+
+    /** detaches session from connection, returning it. Only one caller gets a given session back. */
+    public synchronized Session takeSession(){
+        Session s = session;
+        session = null;
+        return s;
+    }
+
+    public boolean isBinary(){
+        return binary;
+    }
+
+    public void setBinary(boolean binary){
+        this.binary = binary;
+    }
+
+    public SelectionKey getKey(){
+        return key;
+    }
+
+    public void setKey(SelectionKey key){
+        this.key = key;
+    }
+
+    public void addSubscription(String project){
+        subscriptions.add(project);
+    }
+
+    public void removeSubscription(String project){
+        subscriptions.remove(project);
+    }
+
+    public Set<String> getSubscriptions(){
+        return subscriptions;
+    }
+
+    public void setPusher(Consumer<List<ByteBuffer>> pusher){
+        this.pusher = pusher;
+    }
+
+    /** sends a frame not answering any request, such as a card event. May be called from any thread. */
+    public void push(List<ByteBuffer> frame){
+        Consumer<List<ByteBuffer>> p = pusher;
+        if(p != null && socketChannel.isOpen()) p.accept(frame);
+    }
+
+    public void setEventsMissed(){
+        eventsMissed = true;
+    }
+
+    /** @return true if events were missed since last call. */
+    public boolean takeEventsMissed(){
+        if(!eventsMissed) return false;
+        eventsMissed = false;
+        return true;
+    }
+
+    public ReentrantLock getWriteLock(){
+        return writeLock;
+    }
+
+    /**
+     * queues a pushed frame, dropping it if maxPending frames are already waiting.
+     * @return true if no thread is currently writing pushed frames, so caller has to start one.
+     */
+    public synchronized boolean offerPush(List<ByteBuffer> frame, int maxPending){
+        if(pushes.size() >= maxPending){
+            eventsMissed = true;
+            return false;
+        }
+        pushes.add(frame);
+        if(pushing) return false;
+        pushing = true;
+        return true;
+    }
+
+    /**
+     * @return next pushed frame, an events-missed one once waiting frames are over if some were dropped,
+     * or null (and no thread is writing pushed frames anymore) if none is waiting.
+     */
+    public synchronized List<ByteBuffer> pollPush(){
+        List<ByteBuffer> frame = pushes.poll();
+        if(frame == null && eventsMissed){
+            //frames are dropped only while queue is full, so they all came after the queued ones
+            eventsMissed = false;
+            return Collections.singletonList(BoardEvents.eventsMissed(binary));
+        }
+        if(frame == null) pushing = false;
+        return frame;
+    }
+
+    /** queues the buffers a response frame is made of. */
+    public void queueOutbound(List<ByteBuffer> frame){
+        for(ByteBuffer b : frame){
+            outbound.add(b);
+            outboundBytes += b.remaining();
+        }
+    }
+
+    public ByteBuffer peekOutbound(){
+        return outbound.peek();
+    }
+
+    public ByteBuffer pollOutbound(){
+        return outbound.poll();
+    }
+
+    public void consumedOutbound(int bytes){
+        outboundBytes -= bytes;
+    }
+
+    public int getOutboundBytes(){
+        return outboundBytes;
+    }
+
+    public boolean isReadPaused(){
+        return readPaused;
+    }
+
+    public void setReadPaused(boolean readPaused){
+        this.readPaused = readPaused;
+    }
+
+    public boolean isAwaitingResponse(){
+        return awaitingResponse;
+    }
+
+    public void setAwaitingResponse(boolean awaitingResponse){
+        this.awaitingResponse = awaitingResponse;
+    }
+
+    /**
+     * queues a request frame.
+     * @return true if no worker is currently serving this connection, so caller has to schedule one.
+     */
+    public synchronized boolean offerRequest(byte[] request){
+        pendingRequests.add(request);
+        pendingRequestBytes += request.length;
+        if(processing) return false;
+        processing = true;
+        return true;
+    }
+
+    /** @return next queued request, or null (and connection is no more being processed) if queue is empty. */
+    public synchronized byte[] pollRequest(){
+        byte[] request = pendingRequests.poll();
+        if(request == null) processing = false;
+        else pendingRequestBytes -= request.length;
+        return request;
+    }
+
+    /** stops taking requests if maxRequests or maxBytes are queued. @return true if requests are paused. */
+    public synchronized boolean pauseRequestsIfFull(int maxRequests, int maxBytes){
+        if(pendingRequests.size() >= maxRequests || pendingRequestBytes >= maxBytes) requestsPaused = true;
+        return requestsPaused;
+    }
+
+    public synchronized boolean isRequestsPaused(){
+        return requestsPaused;
+    }
+
+    /**
+     * takes requests again once queue is down to half of the limits it was paused at.
+     * @return true if requests were paused and no more are: caller has to resume reading.
+     */
+    public synchronized boolean resumeRequestsIfDrained(int maxRequests, int maxBytes){
+        if(!requestsPaused || pendingRequests.size() > maxRequests / 2 || pendingRequestBytes > maxBytes / 2) return false;
+        requestsPaused = false;
+        return true;
+    }
+
+    /** true if requests are still queued after a worker gave up its turn. */
+    public synchronized boolean hasPendingRequests(){
+        return !pendingRequests.isEmpty();
+    }
+}
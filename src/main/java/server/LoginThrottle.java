@@ -0,0 +1,160 @@
+package server;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Login throttling, so that a login flood cannot spend every CPU cycle hashing passwords (see PasswordHandler).
+ * Each username and each client address own a token bucket, a login attempt takes a token from both.
+ * Consecutive failures of a username also delay its next attempt, exponentially, until a login succeeds.
+ * Checks cost a map lookup: rejected attempts never get to password hashing.
+ */
+public class LoginThrottle {
+    //consecutive failures allowed before backoff starts
+    private static final int FREE_FAILURES = 3;
+    private static final long BACKOFF_BASE = 1_000_000_000L;
+    //attempts between two sweeps of state no more needed
+    private static final int SWEEP_EVERY = 1024;
+
+    private final Limit userLimit;
+    private final Limit addressLimit;
+    private final long maxBackoff;
+
+    private final ConcurrentHashMap<String, State> users = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<InetAddress, State> addresses = new ConcurrentHashMap<>();
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    /** size and refill rate of a token bucket. */
+    private static class Limit {
+        final double burst;
+        final double tokensPerNano;
+
+        Limit(int burst, int perMinute){
+            this.burst = burst;
+            this.tokensPerNano = perMinute / 60e9;
+        }
+    }
+
+    /** token bucket, plus consecutive failures for usernames. */
+    private static class State {
+        private double tokens;
+        private long updated;
+        private int failures = 0;
+        private long lastFailure;
+        private long blockedUntil;
+
+        State(double tokens, long now){
+            this.tokens = tokens;
+            this.updated = now;
+            this.lastFailure = now;
+            this.blockedUntil = now;
+        }
+
+        /** @return nanoseconds until an attempt is allowed, 0 if it is (taking a token if take is set). */
+        synchronized long retryAfter(Limit limit, long now, boolean take){
+            tokens = Math.min(limit.burst, tokens + (now - updated) * limit.tokensPerNano);
+            updated = now;
+            if(blockedUntil - now > 0) return blockedUntil - now;
+            if(tokens < 1) return (long) Math.ceil((1 - tokens) / limit.tokensPerNano);
+            if(take) tokens -= 1;
+            return 0;
+        }
+
+        /** gives back a token taken by an attempt that was refused afterwards. */
+        synchronized void refund(Limit limit){
+            tokens = Math.min(limit.burst, tokens + 1);
+        }
+
+        synchronized void failed(long now, long maxBackoff){
+            failures++;
+            lastFailure = now;
+            if(failures <= FREE_FAILURES) return;
+            int doublings = Math.min(failures - FREE_FAILURES - 1, 30);
+            blockedUntil = now + Math.min(BACKOFF_BASE << doublings, maxBackoff);
+        }
+
+        synchronized void succeeded(long now){
+            failures = 0;
+            blockedUntil = now;
+        }
+
+        /** true if forgetting this state changes nothing: bucket refilled, no backoff pending or to come. */
+        synchronized boolean idle(Limit limit, long now, long maxBackoff){
+            boolean full = tokens + (now - updated) * limit.tokensPerNano >= limit.burst;
+            return full && blockedUntil - now <= 0 && (failures == 0 || now - lastFailure > maxBackoff);
+        }
+    }
+
+    /**
+     * @param userBurst attempts a username may make at once, userPerMinute the rate they are given back at.
+     * @param addressBurst same as userBurst for a client address, addressPerMinute as userPerMinute.
+     *                     A rate of 0 disables the corresponding bucket.
+     * @param maxBackoff seconds a username may be blocked at most after consecutive failures.
+     */
+    public LoginThrottle(int userBurst, int userPerMinute, int addressBurst, int addressPerMinute, int maxBackoff){
+        this.userLimit = userPerMinute > 0 ? new Limit(userBurst, userPerMinute) : null;
+        this.addressLimit = addressPerMinute > 0 ? new Limit(addressBurst, addressPerMinute) : null;
+        this.maxBackoff = maxBackoff * 1_000_000_000L;
+    }
+
+    /**
+     * Tells whether a login attempt would be allowed right now, without counting it.
+     * Usernames and addresses never seen are not recorded: they have a full bucket.
+     * @return nanoseconds to wait before attempting, 0 if attempt is allowed.
+     */
+    public long check(String username, InetAddress address){
+        long now = System.nanoTime();
+        //checks run even for attempts refused before acquire, a flood of those has to be swept as well
+        if(attempts.incrementAndGet() % SWEEP_EVERY == 0) sweep(now);
+        long wait = 0;
+        State state;
+        if(userLimit != null && username != null && (state = users.get(username)) != null)
+            wait = state.retryAfter(userLimit, now, false);
+        if(addressLimit != null && wait == 0 && (state = addresses.get(address)) != null)
+            wait = state.retryAfter(addressLimit, now, false);
+        return wait;
+    }
+
+    /**
+     * Counts a login attempt, to be made only if allowed. Address token is taken first: attempts refused
+     * because of their address leave the username untouched, so they cannot lock a user out.
+     * @return nanoseconds to wait before attempting, 0 if attempt is allowed.
+     */
+    public long acquire(String username, InetAddress address){
+        long now = System.nanoTime();
+        if(attempts.incrementAndGet() % SWEEP_EVERY == 0) sweep(now);
+        State addressState = null;
+        if(addressLimit != null){
+            addressState = addresses.computeIfAbsent(address, a -> new State(addressLimit.burst, now));
+            long wait = addressState.retryAfter(addressLimit, now, true);
+            if(wait > 0) return wait;
+        }
+        if(userLimit != null && username != null){
+            long wait = users.computeIfAbsent(username, u -> new State(userLimit.burst, now)).retryAfter(userLimit, now, true);
+            if(wait > 0){
+                if(addressState != null) addressState.refund(addressLimit);
+                return wait;
+            }
+        }
+        return 0;
+    }
+
+    /** records a failed attempt: unknown username or wrong password alike. */
+    public void failed(String username){
+        if(userLimit == null || username == null) return;
+        long now = System.nanoTime();
+        users.computeIfAbsent(username, u -> new State(userLimit.burst, now)).failed(now, maxBackoff);
+    }
+
+    public void succeeded(String username){
+        State state = users.get(username);
+        if(state != null) state.succeeded(System.nanoTime());
+    }
+
+    /** forgets idle usernames and addresses, so that a flood of made up usernames does not stay in memory. */
+    private void sweep(long now){
+        if(userLimit != null) users.values().removeIf(s -> s.idle(userLimit, now, maxBackoff));
+        if(addressLimit != null) addresses.values().removeIf(s -> s.idle(addressLimit, now, maxBackoff));
+    }
+}
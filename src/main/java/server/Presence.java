@@ -0,0 +1,69 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Who is registered and who is online, with a global version bumped by every change.
+ * Clients are not sent the whole user list at login: they get the version, page through list-users or
+ * list-online when they need to, and apply changes sent afterwards (see RMIServer.updateUsers) when these are
+ * newer than what they already know about a user.
+ * Usernames are kept sorted, so a page costs its own size whatever the number of users.
+ */
+public class Presence {
+    private final ConcurrentHashMap<String, User> users;
+    private final ConcurrentSkipListSet<String> usernames = new ConcurrentSkipListSet<>();
+    private final ConcurrentSkipListSet<String> online = new ConcurrentSkipListSet<>();
+    private final AtomicLong version = new AtomicLong();
+
+    /** @param users registered users, by username. */
+    public Presence(ConcurrentHashMap<String, User> users){
+        this.users = users;
+        usernames.addAll(users.keySet());
+    }
+
+    /** current version, changes made afterwards have a greater one. */
+    public long getVersion(){
+        return version.get();
+    }
+
+    /** records a newly registered, offline, user. @return version of the change. */
+    public long registered(User user){
+        usernames.add(user.getUsername());
+        return version.incrementAndGet();
+    }
+
+    /**
+     * records user going online or offline. Changes of a given user have to be recorded in the order
+     * they happen, so that their versions follow the same order (see SessionRegistry).
+     * @return version of the change.
+     */
+    public long changed(User user, boolean status){
+        user.setStatus(status);
+        if(status) online.add(user.getUsername());
+        else online.remove(user.getUsername());
+        return version.incrementAndGet();
+    }
+
+    /**
+     * @param after username page starts after, null for first page.
+     * @param onlineOnly true to list online users only.
+     * @return up to limit users, sorted by username.
+     */
+    public List<User> page(String after, int limit, boolean onlineOnly){
+        NavigableSet<String> names = onlineOnly ? online : usernames;
+        if(after != null) names = names.tailSet(after, false);
+        List<User> page = new ArrayList<>(Math.min(limit, 64));
+        Iterator<String> iterator = names.iterator();
+        while(page.size() < limit && iterator.hasNext()){
+            User u = users.get(iterator.next());
+            if(u != null) page.add(u);
+        }
+        return page;
+    }
+}
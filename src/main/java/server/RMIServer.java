@@ -2,27 +2,94 @@ package server;
 
 import interfaces.RMIClientInterface;
 import interfaces.RMIServerInterface;
+import server.metrics.LatencyHistogram;
+import server.metrics.CallbackEvent;
+import server.metrics.Metrics;
 import server.utils.FileHandler;
 import server.utils.PasswordHandler;
-import server.utils.Printer;
+import server.utils.Log;
 import shared.Project;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.rmi.RemoteException;
+import java.rmi.server.RMISocketFactory;
 import java.rmi.server.RemoteServer;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Sign up and callback registration. Callbacks are never sent from the request computing them: they are queued
+ * for each registered client (see CallbackQueue) and sent from a dedicated pool, every remote call bounded by
+ * a timeout. A client failing a call, or falling behind until its queue is full, is dropped.
+ */
 public class RMIServer extends RemoteServer implements RMIServerInterface {
+    //fan-out latency covers queueing callback for every registered client, rmi.callback each remote call
+    private static final LatencyHistogram updateUsersTimer = Metrics.timer("rmi.update-users");
+    private static final LatencyHistogram updateChatTimer = Metrics.timer("rmi.update-chat");
+    private static final LongAdder droppedClients = Metrics.counter("rmi.dropped-clients");
+    private static final LongAdder discardedCallbacks = Metrics.counter("rmi.discarded-callbacks");
+    private static final LongAdder coalescedCallbacks = Metrics.counter("rmi.coalesced-callbacks");
+
     private final ConcurrentHashMap<String, User> userList;
-    private final List<RMIClientInterface> clients = Collections.synchronizedList(new ArrayList<>());
+    private final Presence presence;
+    private final ConcurrentHashMap<RMIClientInterface, CallbackQueue> clients = new ConcurrentHashMap<>();
     private final FileHandler fh;
+    private final int hashIterations;
+    private final Executor callbackPool;
+    private final int callbackQueueSize;
 
-    public RMIServer(ConcurrentHashMap<String, User> userList, String projectdir){
+    /**
+     * @param hashIterations PBKDF2 cost passwords of new users are hashed with.
+     * @param callbackPool threads callbacks are sent from.
+     * @param callbackQueueSize callbacks that may wait for a client before it is dropped.
+     * @param callbackTimeout seconds a client has to answer a callback.
+     */
+    public RMIServer(ConcurrentHashMap<String, User> userList, Presence presence, String projectdir, int hashIterations,
+                     Executor callbackPool, int callbackQueueSize, int callbackTimeout){
         this.userList = userList;
+        this.presence = presence;
         this.fh = new FileHandler(projectdir);
+        this.hashIterations = hashIterations;
+        this.callbackPool = callbackPool;
+        this.callbackQueueSize = callbackQueueSize;
+        setTimeouts(callbackTimeout * 1000);
+        Metrics.gauge("rmi.callback-clients", clients::size);
+        Metrics.gauge("rmi.callbacks-queued", () -> clients.values().stream().mapToLong(CallbackQueue::size).sum());
+    }
+
+    /**
+     * RMI has no per call timeout: connect and response timeouts are set for every remote call this process makes,
+     * so that a callback thread waits a dead client out for millis at most. Has to run before the first call,
+     * response timeout is read once. A timeout given on command line (sun.rmi.transport.tcp.responseTimeout) wins.
+     */
+    private static void setTimeouts(int millis){
+        if(millis <= 0) return;
+        if(System.getProperty("sun.rmi.transport.tcp.responseTimeout") == null)
+            System.setProperty("sun.rmi.transport.tcp.responseTimeout", String.valueOf(millis));
+        if(RMISocketFactory.getSocketFactory() != null) return;
+        try {
+            RMISocketFactory.setSocketFactory(new RMISocketFactory() {
+                @Override
+                public Socket createSocket(String host, int port) throws IOException {
+                    Socket socket = new Socket();
+                    socket.connect(new InetSocketAddress(host, port), millis);
+                    return socket;
+                }
+
+                @Override
+                public ServerSocket createServerSocket(int port) throws IOException {
+                    return new ServerSocket(port);
+                }
+            });
+        }catch (IOException e){
+            //another server in this process set it first
+            Log.error("failed to set RMI connect timeout", e);
+        }
     }
 
     @Override
@@ -31,79 +98,106 @@ public class RMIServer extends RemoteServer implements RMIServerInterface {
             if (userList.containsKey(username)) return 2;
             //todo add persistence
             String salt = PasswordHandler.salt();
-            String hash = PasswordHandler.hash(password, salt);
-            User u = new User(username, hash, salt);
+            String hash = PasswordHandler.hash(password, salt, hashIterations);
+            User u = new User(username, hash, salt, hashIterations);
             userList.putIfAbsent(username, u);
             fh.saveUser(u);
 
-        Printer.println("> DEBUG: REGISTER USER: USER CREATED", "blue");
-            updateUsers(username, false);
+        Log.debug("REGISTER USER: USER CREATED");
+            updateUsers(username, false, presence.registered(u));
 
         return 1;
     }
 
     @Override
-    public synchronized void registerForCallback(RMIClientInterface client) throws RemoteException {
-        if(!clients.contains(client)){
-            Printer.println("> INFO: CLIENT REGISTERED TO CALLBACK", "green");
-            clients.add(client);
-        }
+    public void registerForCallback(RMIClientInterface client) throws RemoteException {
+        if(clients.containsKey(client)) return;
+        //asked once here, callbacks to a project's members need it for every client
+        String username = client.getUsername();
+        if(clients.putIfAbsent(client, new CallbackQueue(this, client, username, callbackPool, callbackQueueSize)) == null)
+            Log.debug("CLIENT REGISTERED TO CALLBACK");
     }
 
     @Override
-    public synchronized void unregisterForCallback(RMIClientInterface client) throws RemoteException{
-        if(clients.remove(client)){
-            Printer.println("> INFO: CLIENT UNREGISTERED FROM CALLBACK", "green");
+    public void unregisterForCallback(RMIClientInterface client) throws RemoteException{
+        CallbackQueue queue = clients.remove(client);
+        if(queue != null){
+            queue.close();
+            Log.debug("CLIENT UNREGISTERED FROM CALLBACK");
         }
     }
 
-    //implements online user state callback for clients.
-    public synchronized void updateUsers(String username, Boolean status) throws RemoteException{
-
-        //using an iterator to avoid ConcurrentModificationException for removing while iterating on collection
-        Iterator<RMIClientInterface> iterator = clients.iterator();
-        while(iterator.hasNext()) {
-            try {
-                iterator.next().notifyUser(username, status);
-            } catch (RemoteException e) {
-                //client no longer available
-                iterator.remove();
-                //e.printStackTrace();
+    /** forgets a client that failed a callback or fell behind, discarding callbacks still waiting for it. */
+    void drop(CallbackQueue queue){
+        if(!clients.remove(queue.getClient(), queue)) return;
+        discardedCallbacks.add(queue.close());
+        droppedClients.increment();
+        Log.debug("CLIENT DROPPED FROM CALLBACK");
+    }
+
+    /**
+     * implements online user state callback for clients, queueing it for each one.
+     * @param version presence version of the change, see Presence.
+     */
+    public void updateUsers(String username, Boolean status, long version){
+        long start = System.nanoTime();
+        CallbackEvent event = new CallbackEvent();
+        event.begin();
+        int registered = 0;
+        int dropped = 0;
+        for(CallbackQueue queue : clients.values()){
+            registered++;
+            int queued = queue.offerPresence(username, status, version);
+            if(queued == 0) coalescedCallbacks.increment();
+            else if(queued < 0){
+                drop(queue);
+                dropped++;
             }
         }
+        updateUsersTimer.record(System.nanoTime() - start);
+        commit(event, "update-users", username, null, registered, dropped);
     }
 
     /**
      * implements callback to notify an online client that has been added to a project.
      * client can now join project chats without user to manually update project lists.
      */
-    public synchronized void updateChat(String username, String projectname, String address) throws RemoteException{
-        //using an iterator to avoid ConcurrentModificationException for removing while iterating on collection
-        Iterator<RMIClientInterface> iterator = clients.iterator();
-        while(iterator.hasNext()) {
-            try {
-                RMIClientInterface client = iterator.next();
-                if(client.getUsername().equals(username)) client.notifyChat(address, projectname);
-            } catch (RemoteException e) {
-                //client no longer available
-                iterator.remove();
-                //e.printStackTrace();
+    public void updateChat(String username, String projectname, String address){
+        long start = System.nanoTime();
+        CallbackEvent event = new CallbackEvent();
+        event.begin();
+        int registered = 0;
+        int dropped = 0;
+        for(CallbackQueue queue : clients.values()){
+            registered++;
+            if(!username.equals(queue.getUsername())) continue;
+            if(!queue.offer(client -> client.notifyChat(address, projectname))){
+                drop(queue);
+                dropped++;
             }
         }
+        updateChatTimer.record(System.nanoTime() - start);
+        commit(event, "update-chat", username, projectname, registered, dropped);
+    }
+
+    private static void commit(CallbackEvent event, String callback, String username, String projectname,
+                               int clients, int dropped){
+        if(!event.shouldCommit()) return;
+        event.callback = callback;
+        event.username = username;
+        event.project = projectname;
+        event.clients = clients;
+        event.dropped = dropped;
+        event.commit();
     }
 
-    public synchronized void leaveGroup(Project p){
+    public void leaveGroup(Project p){
         ArrayList<String> users = p.getMembers();
-        Iterator<RMIClientInterface> iterator = clients.iterator();
-        while(iterator.hasNext()) {
-            try {
-                RMIClientInterface client = iterator.next();
-                if(users.contains(client.getUsername())) client.leaveGroup(p.getChatAddress(), p.getName());
-            } catch (RemoteException e) {
-                //client no longer available
-                iterator.remove();
-                //e.printStackTrace();
-            }
+        String address = p.getChatAddress();
+        String projectname = p.getName();
+        for(CallbackQueue queue : clients.values()){
+            if(users.contains(queue.getUsername()) && !queue.offer(client -> client.leaveGroup(address, projectname)))
+                drop(queue);
         }
     }
 
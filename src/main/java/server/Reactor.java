@@ -0,0 +1,337 @@
+package server;
+
+import server.metrics.Metrics;
+import server.utils.BufferPool;
+import server.utils.Log;
+import server.utils.TimerWheel;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sub-reactor: runs its own Selector on a dedicated thread and serves the share of client connections
+ * handed over by the acceptor (see Server.start). Requests are decoded here and computed through Server,
+ * either inline or, if a worker pool is configured, on a worker thread: in that case the reactor only
+ * decodes frames and writes back responses handed over by workers.
+ */
+public class Reactor implements Runnable {
+    //requests a worker serves for a connection before giving other connections a turn
+    private static final int MAX_REQUESTS_PER_TURN = 16;
+    //requests of a connection waiting for a worker after which it is no more read, down to half of them
+    private static final int MAX_QUEUED_REQUESTS = 64;
+    private static final long IDLE_CHECK_TICK = 1000;
+    private static final LongAdder bytesIn = Metrics.counter("bytes.in");
+    private static final LongAdder bytesOut = Metrics.counter("bytes.out");
+
+    private final Server server;
+    private final Selector selector;
+    private final BufferPool bufferPool;
+    //every connection of this reactor is read into this buffer, then decoded in place.
+    private final ByteBuffer readBuffer;
+    private final ExecutorService workers;
+    private final int highWaterMark;
+    private final int lowWaterMark;
+    //idle connections reaper, only touched by reactor thread.
+    private final TimerWheel timers = new TimerWheel(IDLE_CHECK_TICK, 512);
+    private final long idleTimeout;
+
+    //operations submitted by other threads, run by the reactor thread before each select.
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param workers bounded pool requests are computed on, or null to compute them on the reactor thread.
+     * @param highWaterMark queued response bytes after which a connection is no more read until its client
+     *                      consumes them, down to half of the mark. Bounds request bytes waiting for a worker too.
+     * @param idleTimeout milliseconds after which a connection neither sending requests nor consuming responses
+     *                    is closed, 0 to keep idle connections open.
+     */
+    public Reactor(Server server, BufferPool bufferPool, ExecutorService workers, int highWaterMark, long idleTimeout) throws IOException {
+        this.server = server;
+        this.bufferPool = bufferPool;
+        this.readBuffer = bufferPool.acquire(BufferPool.LARGE);
+        this.workers = workers;
+        this.highWaterMark = highWaterMark;
+        this.lowWaterMark = highWaterMark / 2;
+        this.idleTimeout = idleTimeout;
+        this.selector = Selector.open();
+    }
+
+    /** hands an accepted connection over to this reactor, may be called from any thread. */
+    public void register(Connection connection){
+        execute(() -> {
+            SocketChannel socketChannel = connection.getChannel();
+            try {
+                socketChannel.configureBlocking(false);
+                //link connection state: frame decoder for partial reads and outbound queue
+                connection.setKey(socketChannel.register(selector, SelectionKey.OP_READ, connection));
+                connection.setPusher(frame -> execute(() -> push(connection, frame)));
+                connection.touch();
+                if(idleTimeout > 0) timers.schedule(idleTimeout, () -> checkIdle(connection));
+            }catch (IOException e){
+                Log.error("failed to register client connection");
+                server.disconnect(connection);
+            }
+        });
+    }
+
+    /**
+     * Idle reaper: closes connection if it showed no activity for idleTimeout, otherwise checks again once
+     * the timeout could expire. Activity itself never touches the wheel, so reads stay cheap.
+     */
+    private void checkIdle(Connection connection){
+        if(!connection.getChannel().isOpen()) return;
+        long idle = (System.nanoTime() - connection.getLastActivity()) / 1_000_000;
+        //a request being computed is no client fault.
+        if(idle >= idleTimeout && !connection.hasPendingRequests()){
+            Log.debug("Closing idle connection");
+            disconnect(connection);
+            return;
+        }
+        timers.schedule(Math.max(idleTimeout - idle, IDLE_CHECK_TICK), () -> checkIdle(connection));
+    }
+
+    /** runs task on the reactor thread. */
+    public void execute(Runnable task){
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while(!Thread.currentThread().isInterrupted()){
+            try {
+                //wake up in time for next timer tick, if any timeout is pending
+                selector.select(timers.millisToNextTick());
+            }catch (IOException e){
+                Log.error("select failed", e);
+                continue;
+            }
+            timers.advance();
+
+            Runnable task;
+            while((task = tasks.poll()) != null) task.run();
+
+            Iterator<SelectionKey> keysIterator = selector.selectedKeys().iterator();
+            while(keysIterator.hasNext()){
+                SelectionKey sk = keysIterator.next();
+                keysIterator.remove();
+                try {
+                    if (sk.isValid() && sk.isWritable()) flush((Connection) sk.attachment());
+                    if (sk.isValid() && sk.isReadable()) readSocketChannel(sk);
+                }catch (IOException | CancelledKeyException e){
+                    //connection reset by peer or similar, other connections are not affected.
+                    disconnect((Connection) sk.attachment());
+                }
+            }
+        }
+    }
+
+    private void readSocketChannel(SelectionKey selectionKey) throws IOException {
+        Connection connection = (Connection) selectionKey.attachment();
+        SocketChannel socketChannel = connection.getChannel();
+        ByteBuffer buffer = readBuffer;
+        buffer.clear();
+
+        //client disconnected
+        int read = socketChannel.read(buffer);
+        if(read < 0) {
+            disconnect(connection);
+            return;
+        }
+        bytesIn.add(read);
+        connection.touch();
+
+        //read bytes may complete a partial frame or carry multiple requests.
+        buffer.flip();
+        connection.getDecoder().feed(buffer);
+        serveFrames(connection);
+    }
+
+    /** serves every complete request in arrival order, so clients may pipeline commands. */
+    private void serveFrames(Connection connection){
+        byte[] frame;
+        try {
+            //requests after a login being verified, or beyond those workers are late on, stay in the decoder
+            while (!connection.isAwaitingResponse() && !connection.isRequestsPaused()
+                    && (frame = connection.getDecoder().next()) != null) {
+                dispatch(connection, frame);
+            }
+        }catch (ProtocolException e){
+            //peer is not speaking our framing, stream cannot be resynchronized.
+            Log.debug(() -> e.getMessage() + ", closing connection.");
+            disconnect(connection);
+        }
+    }
+
+    private void dispatch(Connection connection, byte[] frame){
+        if(workers == null){
+            List<ByteBuffer> response = server.respond(frame, connection, r -> execute(() -> resume(connection, r)));
+            if(response != null){
+                write(connection, response);
+                return;
+            }
+            //login went to the auth pool: stop reading until it is answered, see resume.
+            //requests pipelined behind it are still in the reactor read buffer, which next read overwrites.
+            connection.setAwaitingResponse(true);
+            connection.getDecoder().detach();
+            try {
+                flush(connection);
+            }catch (IOException e){
+                disconnect(connection);
+            }
+            return;
+        }
+        //only first request of an idle connection schedules a worker, the others queue up behind it.
+        if(connection.offerRequest(frame)) schedule(connection);
+        //client pipelines faster than workers compute: stop reading it until they catch up, see drain
+        if(connection.pauseRequestsIfFull(MAX_QUEUED_REQUESTS, highWaterMark)){
+            connection.getDecoder().detach();
+            try {
+                flush(connection);
+            }catch (IOException e){
+                disconnect(connection);
+            }
+        }
+    }
+
+    /** decodes requests left in the decoder when connection was paused, then reads it again. */
+    private void resumeRequests(Connection connection){
+        if(!connection.getChannel().isOpen()) return;
+        serveFrames(connection);
+        try {
+            if(connection.getChannel().isOpen()) flush(connection);
+        }catch (IOException e){
+            disconnect(connection);
+        }
+    }
+
+    /** writes response of a login computed on the auth pool, then serves requests received meanwhile. */
+    private void resume(Connection connection, List<ByteBuffer> response){
+        connection.setAwaitingResponse(false);
+        write(connection, response);
+        if(connection.getChannel().isOpen()) serveFrames(connection);
+    }
+
+    private void schedule(Connection connection){
+        try {
+            workers.execute(() -> drain(connection));
+        }catch (RejectedExecutionException e){
+            execute(() -> refuse(connection));
+        }
+    }
+
+    /** worker side: computes queued requests of connection, handing responses back to the reactor in order. */
+    private void drain(Connection connection){
+        for(int served = 0; served < MAX_REQUESTS_PER_TURN; served++){
+            byte[] frame = connection.pollRequest();
+            if(frame == null) return;
+            if(connection.resumeRequestsIfDrained(MAX_QUEUED_REQUESTS, highWaterMark))
+                execute(() -> resumeRequests(connection));
+            List<ByteBuffer> response = server.respond(frame, connection, r -> {
+                execute(() -> write(connection, r));
+                schedule(connection);
+            });
+            //login went to the auth pool, which schedules this connection again once done.
+            if(response == null) return;
+            execute(() -> write(connection, response));
+        }
+        //more requests may be waiting, go back to the end of the worker queue.
+        schedule(connection);
+    }
+
+    /** worker queue is full: answers 503 to every queued request, preserving response order. */
+    private void refuse(Connection connection){
+        while(connection.pollRequest() != null) write(connection, server.encodeReturnCode(503, connection));
+        if(connection.resumeRequestsIfDrained(MAX_QUEUED_REQUESTS, highWaterMark)) resumeRequests(connection);
+    }
+
+    /**
+     * Writes a pushed frame, unless client already has more than highWaterMark bytes to consume:
+     * a client not keeping up with events loses them instead of making its queue grow without bound.
+     */
+    private void push(Connection connection, List<ByteBuffer> frame){
+        if(connection.getOutboundBytes() > highWaterMark){
+            connection.setEventsMissed();
+            for(ByteBuffer b : frame) bufferPool.release(b);
+            return;
+        }
+        if(connection.takeEventsMissed())
+            write(connection, Collections.singletonList(BoardEvents.eventsMissed(connection.isBinary())));
+        write(connection, frame);
+    }
+
+    /**
+     * Queues frame on connection outbound queue and writes as much as socket send buffer takes right now.
+     * Leftovers are written on OP_WRITE readiness, so a slow client never makes the reactor spin.
+     */
+    private void write(Connection connection, List<ByteBuffer> frame){
+        //client may have gone away while its request was being computed
+        if(!connection.getChannel().isOpen()){
+            for(ByteBuffer b : frame) bufferPool.release(b);
+            return;
+        }
+        connection.queueOutbound(frame);
+        try {
+            flush(connection);
+        }catch (IOException e){
+            disconnect(connection);
+        }
+    }
+
+    private void flush(Connection connection) throws IOException {
+        SocketChannel socketChannel = connection.getChannel();
+        SelectionKey key = connection.getKey();
+        ByteBuffer head;
+        while(true){
+            head = connection.peekOutbound();
+            if(head == null){
+                //client caught up: let it know about events dropped meanwhile
+                if(!connection.takeEventsMissed()) break;
+                head = BoardEvents.eventsMissed(connection.isBinary());
+                connection.queueOutbound(Collections.singletonList(head));
+            }
+            int written = socketChannel.write(head);
+            connection.consumedOutbound(written);
+            if(written > 0){
+                connection.touch();
+                bytesOut.add(written);
+            }
+            //send buffer is full, wait for client to read.
+            if(head.hasRemaining()) break;
+            bufferPool.release(connection.pollOutbound());
+        }
+
+        int interest = SelectionKey.OP_READ;
+        int queued = connection.getOutboundBytes();
+        if(queued > 0) interest |= SelectionKey.OP_WRITE;
+
+        //backpressure: client is not consuming its responses, stop reading its requests meanwhile.
+        if(queued > highWaterMark || (connection.isReadPaused() && queued > lowWaterMark)){
+            interest &= ~SelectionKey.OP_READ;
+            connection.setReadPaused(true);
+        } else connection.setReadPaused(false);
+        if(connection.isAwaitingResponse() || connection.isRequestsPaused()) interest &= ~SelectionKey.OP_READ;
+
+        if(key.isValid() && key.interestOps() != interest) key.interestOps(interest);
+    }
+
+    /** closes connection giving its unsent response buffers back to the pool. */
+    private void disconnect(Connection connection){
+        server.disconnect(connection);
+        ByteBuffer b;
+        while((b = connection.pollOutbound()) != null) bufferPool.release(b);
+    }
+}
@@ -1,6 +1,5 @@
 package server;
 
-import com.google.gson.*;
 import exceptions.CardAlreadyExistsException;
 import exceptions.CardMoveForbidden;
 import exceptions.CardNotFoundException;
@@ -8,9 +7,22 @@ import interfaces.RMIServerInterface;
 import shared.Card;
 import shared.CardEvent;
 import shared.Project;
+import shared.protocol.BinaryProtocol;
+import server.metrics.LatencyHistogram;
+import server.metrics.Metrics;
+import server.metrics.RequestEvent;
+import server.metrics.ReturnCodeRecorder;
+import server.protocol.BinaryRequestCodec;
+import server.protocol.BinaryResponseWriter;
+import server.protocol.JsonRequestCodec;
+import server.protocol.JsonResponseWriter;
+import server.protocol.Pagination;
+import server.protocol.Request;
+import server.protocol.ResponseWriter;
 import server.utils.*;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
@@ -20,37 +32,66 @@ import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 public class Server {
+    //latency of each request method, methods unknown to the server are only counted (see dispatch)
+    private static final Map<String, LatencyHistogram> requestTimers = new HashMap<>();
+    private static final LongAdder unknownRequests = Metrics.counter("request.unknown");
+    private static final LongAdder acceptedConnections = Metrics.counter("connections.accepted");
+    private static final LongAdder refusedConnections = Metrics.counter("connections.refused");
+    private static final LongAdder refusedLogins = Metrics.counter("auth.refused");
+    private static final LongAdder throttledLogins = Metrics.counter("auth.throttled");
+
+    static {
+        requestTimers.put("hello", Metrics.timer("request.hello"));
+        for(String method : BinaryProtocol.METHODS)
+            if(method != null) requestTimers.put(method, Metrics.timer("request." + method));
+    }
+
     private final String PROJECTDIR;
-    private static final int CHANNEL_BUFFER_SIZE = 8192;
     private final int SOCKETPORT;
     private final int RMIPORT;
     private RMIServer rmiServer = null;
     private final String ADDRESS;
     private final String REGISTRY_NAME;
+    private final ServerConfig config;
 
     private final ConcurrentHashMap<String, User> registeredUsers;
     private final ConcurrentHashMap<String, Project> projects;
-
-    private static Selector selector;
+    private final Presence presence;
+    private final SessionRegistry sessions;
+    private final LoginThrottle loginThrottle;
+    private final BoardEvents boardEvents = new BoardEvents();
+    //open connections, overall and by client address, see admit.
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final ConcurrentHashMap<InetAddress, AtomicInteger> connectionsByAddress = new ConcurrentHashMap<>();
+
+    private ServerSocketChannel serverSocketChannel;
+    private Selector selector;
+    private Reactor[] reactors;
+    private int nextReactor = 0;
     private final  FileHandler fileHandler;
-
-    public Server(String address, int channelport, String registryname, int rmiport, String workingdir) throws IOException {
-        this.SOCKETPORT = channelport;
-        this.RMIPORT = rmiport;
-        this.ADDRESS = address;
-        this.PROJECTDIR = workingdir;
-        REGISTRY_NAME = registryname;
+    private final BufferPool bufferPool = new BufferPool();
+    //logins are computed here, see respond
+    private final ThreadPoolExecutor authPool;
+
+    public Server(ServerConfig config) throws IOException {
+        this.config = config;
+        this.SOCKETPORT = config.tcpPort;
+        this.RMIPORT = config.rmiPort;
+        this.ADDRESS = config.address;
+        this.PROJECTDIR = config.projectDir;
+        REGISTRY_NAME = config.registryName;
+        loginThrottle = new LoginThrottle(config.userLoginBurst, config.userLoginsPerMinute,
+                config.addressLoginBurst, config.addressLoginsPerMinute, config.loginBackoffMax);
 
         try {
-            ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+            serverSocketChannel = ServerSocketChannel.open();
             serverSocketChannel.bind(new InetSocketAddress(SOCKETPORT));
-            serverSocketChannel.configureBlocking(false);
-            selector = Selector.open();
-            serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
-
         }catch(IOException e){
             e.printStackTrace();
             System.exit(-1);
@@ -59,15 +100,55 @@ public class Server {
         fileHandler = new FileHandler(PROJECTDIR);
         registeredUsers = fileHandler.loadUsers();
         projects = fileHandler.loadProjects();
+        presence = new Presence(registeredUsers);
+        sessions = new SessionRegistry(presence, config.resumeGrace * 1000L);
+
+        Metrics.gauge("connections.open", connectionCount::get);
+        Metrics.gauge("users.registered", registeredUsers::size);
+        Metrics.gauge("users.online", sessions::getOnlineCount);
+        //bounded queue: once full, logins are answered 503 instead of piling up hashing work.
+        authPool = new ThreadPoolExecutor(config.authThreads, config.authThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(config.authQueueSize), new DaemonThreadFactory("worth-auth-"));
+
+        Metrics.gauge("projects", projects::size);
+        Metrics.gauge("auth.queued", () -> authPool.getQueue().size());
     }
 
     public void start(){
         startRMI();
+        if(config.metricsFile != null) Metrics.startDump(config.metricsFile, config.metricsInterval);
+        //printed whatever the log level: operator needs to know where server listens
         Printer.println(String.format(
-                "> INFO: Server started: \n\tTCP: %s:%d\n\tRMI: %s:%d @ %s\n\tProjectDirectory: %s\n",
-                ADDRESS, SOCKETPORT, ADDRESS, RMIPORT, REGISTRY_NAME, PROJECTDIR) ,
+                "> INFO: Server started: \n\tTCP: %s:%d (%s)\n\tRMI: %s:%d @ %s\n\tProjectDirectory: %s\n",
+                ADDRESS, SOCKETPORT, engineDescription(), ADDRESS, RMIPORT, REGISTRY_NAME, PROJECTDIR) ,
                 "green");
 
+        if(config.engine == ServerConfig.Engine.VIRTUAL)
+            new VirtualThreadEngine(this, serverSocketChannel, bufferPool, config.idleTimeout * 1000L).run();
+        else startNio();
+    }
+
+    private String engineDescription(){
+        if(config.engine == ServerConfig.Engine.VIRTUAL) return "virtual thread per connection";
+        return String.format("%d reactor threads, %d worker threads", config.reactorThreads, config.workerThreads);
+    }
+
+    /**
+     * Starts sub-reactor threads, then runs the acceptor loop on the calling thread:
+     * accepted connections are spread round robin among reactors, each one owning its share of channels.
+     * If worker threads are configured, requests are computed on a bounded pool shared by all reactors.
+     */
+    private void startNio(){
+        try {
+            serverSocketChannel.configureBlocking(false);
+            selector = Selector.open();
+            serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+        }catch (IOException e){
+            e.printStackTrace();
+            System.exit(-1);
+        }
+        startReactors();
+
         while(true){
             try{
                 if(selector.select() == 0) continue;
@@ -77,8 +158,7 @@ public class Server {
                 while(keysIterator.hasNext()){
                     SelectionKey sk = keysIterator.next();
                     keysIterator.remove();
-                    if (sk.isAcceptable()) accept(selector, sk);
-                    else if (sk.isReadable()) readSocketChannel(selector, sk);
+                    if (sk.isAcceptable()) accept(sk);
                 }
 
             }catch (IOException e){
@@ -88,9 +168,35 @@ public class Server {
 
     }
 
+    private void startReactors(){
+        ExecutorService workers = null;
+        if(config.workerThreads > 0){
+            //bounded queue: once full, reactors answer 503 instead of piling up requests.
+            workers = new ThreadPoolExecutor(config.workerThreads, config.workerThreads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(config.workerQueueSize), new DaemonThreadFactory("worth-worker-"));
+        }
+
+        reactors = new Reactor[config.reactorThreads];
+        try {
+            for (int i = 0; i < config.reactorThreads; i++) {
+                reactors[i] = new Reactor(this, bufferPool, workers, config.writeHighWaterMark, config.idleTimeout * 1000L);
+                Thread t = new Thread(reactors[i], "worth-reactor-" + i);
+                t.setDaemon(true);
+                t.start();
+            }
+        }catch (IOException e){
+            e.printStackTrace();
+            System.exit(-1);
+        }
+    }
+
     private void startRMI(){
         try {
-            rmiServer = new RMIServer(registeredUsers, PROJECTDIR);
+            //callbacks wait on their own pool, so that a slow client never stalls a request notifying it
+            ExecutorService callbackPool = Executors.newFixedThreadPool(config.callbackThreads,
+                    new DaemonThreadFactory("worth-callback-"));
+            rmiServer = new RMIServer(registeredUsers, presence, PROJECTDIR, config.hashIterations,
+                    callbackPool, config.callbackQueueSize, config.callbackTimeout);
             RMIServerInterface stub = (RMIServerInterface) UnicastRemoteObject.exportObject(rmiServer, RMIPORT);
             LocateRegistry.createRegistry(RMIPORT);
             //todo try to bind to non-localhost address!
@@ -103,235 +209,530 @@ public class Server {
         }
     }
 
-    private void accept(Selector s, SelectionKey sk) throws IOException {
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
 
-        //setting things ready for SocketChannel to receive data
-        Printer.println("> INFO: Client connected!", "green");
+        DaemonThreadFactory(String prefix){
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    private void accept(SelectionKey sk) throws IOException {
         ServerSocketChannel serverSocketChannel = (ServerSocketChannel) sk.channel();
         SocketChannel socketChannel = serverSocketChannel.accept();
-        socketChannel.configureBlocking(false);
+        if(socketChannel == null) return;
+        Connection connection = admit(socketChannel);
+        if(connection == null) return;
+        Log.debug("Client connected!");
+
+        //channel is owned by its reactor from now on.
+        reactors[nextReactor].register(connection);
+        nextReactor = (nextReactor + 1) % reactors.length;
+    }
 
-        //now link a Buffer to store channel's data, (8KB for connection)
-        ByteBuffer byteBuffer = ByteBuffer.wrap(new byte[CHANNEL_BUFFER_SIZE]);
+    /**
+     * Counts a newly accepted channel against connection limits, closing it right away if they are exceeded:
+     * under a connection storm each refused client costs a file descriptor only for a moment.
+     * @return connection state for channel, or null if channel was refused.
+     */
+    Connection admit(SocketChannel socketChannel) {
+        InetAddress address;
+        try {
+            address = ((InetSocketAddress) socketChannel.getRemoteAddress()).getAddress();
+        }catch (IOException e){
+            close(socketChannel);
+            return null;
+        }
 
-        //socket is now ready for reading up to 8kb of incoming data from client.
-        socketChannel.register(s, SelectionKey.OP_READ, byteBuffer);
+        Connection connection = new Connection(socketChannel, address);
+        int total = connectionCount.incrementAndGet();
+        int fromAddress = connectionsByAddress.computeIfAbsent(address, a -> new AtomicInteger()).incrementAndGet();
+        if(total > config.maxConnections || fromAddress > config.maxConnectionsPerAddress){
+            Log.debug(() -> "Connection limit reached, refusing " + address);
+            refusedConnections.increment();
+            close(socketChannel);
+            release(connection);
+            return null;
+        }
+        acceptedConnections.increment();
+        return connection;
     }
 
-    private void readSocketChannel(Selector selector, SelectionKey selectionKey) throws IOException {
-        String message;
-        SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
-        socketChannel.configureBlocking(false);
-        ByteBuffer buffer = (ByteBuffer) selectionKey.attachment();
+    /** gives back connection slots taken by admit. */
+    private void release(Connection connection) {
+        if(!connection.release()) return;
+        connectionCount.decrementAndGet();
+        connectionsByAddress.computeIfPresent(connection.getAddress(),
+                (a, count) -> count.decrementAndGet() == 0 ? null : count);
+    }
 
-        //client disconnected
-        if(socketChannel.read(buffer) < 0) {
-            for(User u: registeredUsers.values()){
-                //if user was logged in, log out.
-                if(u.getSessionPort() == socketChannel.getRemoteAddress().hashCode()){
-                    u.setStatus(false);
-                    u.setSessionPort(-1);
-                }
-            }
-            Printer.println("> INFO: CLIENT DISCONNECTED.", "green");
+    private void close(SocketChannel socketChannel) {
+        try {
             socketChannel.close();
-            return;
+        }catch (IOException e){
+            Log.error("failed to close client connection", e);
         }
+    }
 
-        buffer.flip();
-        message = StandardCharsets.UTF_8.decode(buffer).toString();
+    /** closes connection, logging out the user bound to it, if any. */
+    void disconnect(Connection connection) {
+        close(connection.getChannel());
+        release(connection);
+        //channel is closed first, so that a login completing concurrently notices it (see login)
+        boardEvents.unsubscribeAll(connection);
+        Session session = connection.takeSession();
+        if(session != null){
+            closeSession(session);
+            //client may just have lost its connection, let it come back without hashing its password again
+            sessions.detach(session);
+        }
+        Log.debug("CLIENT DISCONNECTED.");
+    }
 
-        Printer.println("> DEBUG: RECEIVED:" + message, "yellow");
-        buffer.clear();
+    /** forgets session, notifying clients if its user went offline. */
+    private void closeSession(Session session) {
+        long version = sessions.remove(session);
+        if(version == 0) return;
+        rmiServer.updateUsers(session.getUser().getUsername(), false, version);
+    }
 
-        //parse message as JSON object to handle it easily
-        Gson gson = new Gson();
-        JsonObject request = null;
-        JsonObject response =  null;
+    /**
+     * Decodes request frame, computes its response and encodes it, streaming it straight into pooled buffers
+     * whatever its size. Returned buffers have to be given back to the pool once written.
+     * May be called concurrently from any connection thread.
+     */
+    List<ByteBuffer> respond(byte[] frame, Connection connection) {
+        return respond(frame, connection, null);
+    }
 
-        try{
-            request = gson.fromJson(message, JsonObject.class);
-            //fetching requested method and computing response
+    /**
+     * Same as respond, except that a login (or a batch holding one) is computed on the auth pool if completion
+     * is given: password hashing takes a lot of CPU time, calling thread goes on serving other connections
+     * meanwhile. In that case null is returned and completion gets the response, on an auth thread.
+     * Caller must not serve further requests of connection until then, so responses keep request order.
+     */
+    List<ByteBuffer> respond(byte[] frame, Connection connection, Consumer<List<ByteBuffer>> completion) {
+        //protocol is read once: a hello request is still answered with the protocol it was sent with.
+        boolean binary = connection.isBinary();
+        if(!binary) Log.debug(() -> "RECEIVED:" + new String(frame, StandardCharsets.UTF_8));
+
+        RequestEvent event = new RequestEvent();
+        event.begin();
+        long decodeStart = System.nanoTime();
+        Request request;
+        try {
+            request = binary ? BinaryRequestCodec.decode(frame) : JsonRequestCodec.decode(frame);
+        }catch (IOException e){
+            return commit(event, null, frame.length, binary, 400, encodeReturnCode(400, binary, null));
+        }
+        event.decodeTime = System.nanoTime() - decodeStart;
+
+        if(completion != null && authenticates(request)){
+            //attempt would be throttled anyway (see login): cheaper to refuse it before queueing it
+            long wait = "login".equals(request.method) ? loginThrottle.check(request.username, connection.getAddress()) : 0;
+            if(wait > 0){
+                throttledLogins.increment();
+                return commit(event, request, frame.length, binary, 429, encodeRetryAfter(wait, binary, request.id));
+            }
             try {
-                assert request != null;
-                switch (request.get("method").getAsString()) {
-                    case "login":
-                        response = login(
-                                request.get("username").getAsString(),
-                                request.get("password").getAsString(),
-                                socketChannel.getRemoteAddress().hashCode());
-                        break;
-                    case "logout":
-                        response = logout(request.get("username").getAsString());
-                        break;
-                    case "create-project":
-                        response = addProject(
-                                request.get("projectname").getAsString(),
-                                request.get("username").getAsString());
-                        break;
-                    case "list-projects":
-                        response = listProjects(request.get("username").getAsString());
-                        break;
-                    case "add-member":
-                        response = addMember(request.get("username").getAsString(),
-                                request.get("new-member").getAsString(),
-                                request.get("projectname").getAsString());
-                        break;
-                    case "show-members":
-                        response = showMembers(
-                                request.get("username").getAsString(),
-                                request.get("projectname").getAsString());
-                        break;
-                    case "add-card":
-                        response = addCard(
-                                request.get("username").getAsString(),
-                                request.get("cardname").getAsString(),
-                                request.get("cardesc").getAsString(),
-                                request.get("projectname").getAsString());
-                        break;
-                    case "show-card":
-                        response = showCard(
-                                request.get("username").getAsString(),
-                                request.get("projectname").getAsString(),
-                                request.get("cardname").getAsString());
-                        break;
-                    case "move-card":
-                        response = moveCard(
-                                request.get("username").getAsString(),
-                                request.get("cardname").getAsString(),
-                                request.get("from").getAsString(),
-                                request.get("to").getAsString(),
-                                request.get("projectname").getAsString());
-                        break;
-                    case "list-cards":
-                        response = listCards(
-                                request.get("username").getAsString(),
-                                request.get("projectname").getAsString());
-                        break;
-                    case "get-card-history":
-                        response = getCardHistory(
-                                request.get("username").getAsString(),
-                                request.get("projectname").getAsString(),
-                                request.get("cardname").getAsString());
-                        break;
-                    case "delete-project":
-                        response = deleteProject(
-                                request.get("username").getAsString(),
-                                request.get("projectname").getAsString());
-                        break;
-                    default:
-                        break;
-                }
-            }catch (Exception e){
-                response = new JsonObject();
-                response.addProperty("return-code", 500);
+                authPool.execute(() -> {
+                    //caller waits for completion whatever happens, see VirtualThreadEngine.respond
+                    List<ByteBuffer> response = null;
+                    try {
+                        response = answer(request, frame.length, binary, connection, event);
+                    }finally {
+                        completion.accept(response != null ? response : encodeReturnCode(500, binary, request.id));
+                    }
+                });
+                return null;
+            }catch (RejectedExecutionException e){
+                refusedLogins.increment();
+                return commit(event, request, frame.length, binary, 503, encodeReturnCode(503, binary, request.id));
             }
-        }catch (JsonSyntaxException e){
-            response = new JsonObject();
-            response.addProperty("return-code", 400);
         }
+        return answer(request, frame.length, binary, connection, event);
+    }
+
+    /** true if request verifies a password. */
+    private static boolean authenticates(Request request){
+        if("login".equals(request.method)) return true;
+        if(!"batch".equals(request.method) || request.requests == null) return false;
+        for(Request sub : request.requests) if("login".equals(sub.method)) return true;
+        return false;
+    }
+
+    /** computes and encodes response to a decoded request. */
+    private List<ByteBuffer> answer(Request request, int requestBytes, boolean binary, Connection connection, RequestEvent event){
+        BufferChain chain = new BufferChain(bufferPool);
+        try {
+            ReturnCodeRecorder out = new ReturnCodeRecorder(
+                    binary ? new BinaryResponseWriter(chain) : new JsonResponseWriter(chain.asWriter()));
+            out.beginObject();
+            //request id lets clients with many requests in flight match responses, see client.sdk
+            if(request.id != null) out.name("id").value(request.id);
+            dispatch(request, connection, out);
+            out.endObject();
+            return commit(event, request, requestBytes, binary, out.getReturnCode(), chain.finish());
+        }catch (Exception e){
+            //response may have been partially written, start over with error code only.
+            chain.discard();
+            return commit(event, request, requestBytes, binary, 500, encodeReturnCode(500, binary, request.id));
+        }
+    }
+
+    /** fills in and commits request event if a flight recording wants it. @return response, unchanged. */
+    private static List<ByteBuffer> commit(RequestEvent event, Request request, int requestBytes, boolean binary,
+                                           int code, List<ByteBuffer> response){
+        if(!event.shouldCommit()) return response;
+        if(request != null){
+            event.method = request.method;
+            event.username = request.username;
+            event.project = request.projectName;
+            event.card = request.cardName;
+        }
+        event.binary = binary;
+        event.returnCode = code;
+        event.requestBytes = requestBytes;
+        for(ByteBuffer b : response) event.responseBytes += b.remaining();
+        event.commit();
+        return response;
+    }
+
+    /** pool respond takes response buffers from, they go back to it once written. */
+    BufferPool getBufferPool(){
+        return bufferPool;
+    }
+
+    /** encodes a response carrying just a return code, in the protocol negotiated by connection. */
+    List<ByteBuffer> encodeReturnCode(int code, Connection connection) {
+        return encodeReturnCode(code, connection.isBinary(), null);
+    }
+
+    private List<ByteBuffer> encodeReturnCode(int code, boolean binary, String id) {
+        ReturnCodeRecorder.record(code);
+        BufferChain chain = new BufferChain(bufferPool);
+        ResponseWriter out = binary ? new BinaryResponseWriter(chain) : new JsonResponseWriter(chain.asWriter());
+        out.beginObject();
+        if(id != null) out.name("id").value(id);
+        out.name("return-code").value(code).endObject();
+        return chain.finish();
+    }
+
+    /** encodes a 429 response telling client when its login may be attempted again. */
+    private List<ByteBuffer> encodeRetryAfter(long wait, boolean binary, String id) {
+        ReturnCodeRecorder.record(429);
+        BufferChain chain = new BufferChain(bufferPool);
+        ResponseWriter out = binary ? new BinaryResponseWriter(chain) : new JsonResponseWriter(chain.asWriter());
+        out.beginObject();
+        if(id != null) out.name("id").value(id);
+        out.name("return-code").value(429);
+        out.name("retry-after").value(retryAfterSeconds(wait)).endObject();
+        return chain.finish();
+    }
+
+    /** @return whole seconds covering wait nanoseconds, at least one. */
+    private static long retryAfterSeconds(long wait){
+        return Math.max(1, (wait + 999_999_999L) / 1_000_000_000L);
+    }
+
+    /** computes response to request, writing its fields inside the already opened response object. */
+    private void dispatch(Request request, Connection connection, ResponseWriter out) throws IOException {
+        LatencyHistogram timer = request.method == null ? null : requestTimers.get(request.method);
+        if(timer == null){
+            unknownRequests.increment();
+            out.name("return-code").value(400);
+            return;
+        }
+        long start = System.nanoTime();
+        //a session token stands for the user it was issued to, username may then be left out
+        if(request.token != null && !"resume".equals(request.method) && !authorize(request, connection)){
+            out.name("return-code").value(401);
+            timer.record(System.nanoTime() - start);
+            return;
+        }
+        switch (request.method) {
+            case "hello":
+                hello(request.protocol, connection, out);
+                break;
+            case "login":
+                login(request.username, request.password, connection, out);
+                break;
+            case "logout":
+                logout(request.username, connection, out);
+                break;
+            case "resume":
+                resume(request.token, connection, out);
+                break;
+            case "create-project":
+                addProject(request.projectName, request.username, connection, out);
+                break;
+            case "list-projects":
+                listProjects(request.username, connection, out);
+                break;
+            case "add-member":
+                addMember(request.username, request.newMember, request.projectName, connection, out);
+                break;
+            case "show-members":
+                showMembers(request.username, request.projectName, connection, out);
+                break;
+            case "add-card":
+                addCard(request.username, request.cardName, request.cardDescription, request.projectName, connection, out);
+                break;
+            case "show-card":
+                showCard(request.username, request.projectName, request.cardName, connection, out);
+                break;
+            case "move-card":
+                moveCard(request.username, request.cardName, request.from, request.to, request.projectName, connection, out);
+                break;
+            case "list-cards":
+                listCards(request.username, request.projectName, request.cursor, request.limit, request.fields, connection, out);
+                break;
+            case "get-card-history":
+                getCardHistory(request.username, request.projectName, request.cardName,
+                        request.cursor, request.limit, request.fields, connection, out);
+                break;
+            case "delete-project":
+                deleteProject(request.username, request.projectName, connection, out);
+                break;
+            case "sync-project":
+                syncProject(request.username, request.projectName, request.version, connection, out);
+                break;
+            case "batch":
+                batch(request, connection, out);
+                break;
+            case "subscribe":
+                subscribe(request.username, request.projectName, connection, out);
+                break;
+            case "unsubscribe":
+                unsubscribe(request.username, request.projectName, connection, out);
+                break;
+            case "stats":
+                stats(request.username, connection, out);
+                break;
+            case "list-users":
+                listUsers(request.username, request.cursor, request.limit, false, connection, out);
+                break;
+            case "list-online":
+                listUsers(request.username, request.cursor, request.limit, true, connection, out);
+                break;
+            default:
+                //unknown method
+                out.name("return-code").value(400);
+                break;
+        }
+        timer.record(System.nanoTime() - start);
+    }
 
-        assert response != null;
-        buffer.put(response.toString().getBytes(StandardCharsets.UTF_8));
-        buffer.flip(); //ready to be read again from zero to limit
+    /**
+     * Checks request token against the session of connection, filling in request username with its user.
+     * @return false if token is not the one of the session logged in on connection, or username is another user.
+     */
+    private boolean authorize(Request request, Connection connection){
+        Session session = connection.getSession();
+        if(session == null || !session.hasToken(request.token)) return false;
+        String username = session.getUser().getUsername();
+        if(request.username != null && !request.username.equals(username)) return false;
+        request.username = username;
+        return true;
+    }
 
-        while(buffer.hasRemaining()) socketChannel.write(buffer);
-        buffer.flip();
-        Printer.println("> DEBUG: buffer content" + StandardCharsets.UTF_8.decode(buffer), "yellow");
-        buffer.clear(); //limit = pos = 0
-        Printer.println("> DEBUG: " + response, "yellow");
-        socketChannel.register(selector, SelectionKey.OP_READ, buffer); //channel ready for new client requests.
+    /**
+     * Runs sub-requests of a batch in order, answering with an array holding the response of each one:
+     * a failing sub-request does not stop the following ones. Sub-requests without a username act as
+     * the batch username. Card and project saves are deferred and written once at the end of the batch
+     * (see FileHandler.beginBatch), so a bulk import does not rewrite files request by request.
+     * If they cannot be written, "persisted" is false.
+     */
+    private void batch(Request request, Connection connection, ResponseWriter out) throws IOException {
+        //size limit is enforced by codecs, see Request.MAX_BATCH_SIZE
+        if(request.requests == null){
+            out.name("return-code").value(400);
+            return;
+        }
+
+        out.name("return-code").value(200);
+        out.name("results").beginArray();
+        fileHandler.beginBatch();
+        boolean persisted;
+        try {
+            for (Request sub : request.requests) {
+                if (sub.username == null) sub.username = request.username;
+                out.beginObject();
+                //no nested batches, and protocol may not change in the middle of a response
+                if ("batch".equals(sub.method) || "hello".equals(sub.method)) out.name("return-code").value(400);
+                else dispatch(sub, connection, out);
+                out.endObject();
+            }
+        }finally {
+            persisted = commitBatch();
+        }
+        out.endArray();
+        //sub-requests took effect in memory anyway: results are still sent, client is told they may be lost on restart
+        out.name("persisted").value(persisted);
+    }
+
+    /** writes saves deferred by current batch. @return false if they could not be written. */
+    private boolean commitBatch(){
+        try {
+            fileHandler.commitBatch();
+            return true;
+        }catch (IOException e){
+            Log.error("failed to save batch", e);
+            return false;
+        }
     }
 
-    /** login method, uses RMI for user callback. See RMIServer.java for actual callback implementation. */
-    private JsonObject login(String username, String password, int socketHash) throws RemoteException {
-        JsonObject response = new JsonObject();
+    /**
+     * Protocol negotiation: switches connection to the requested encoding (json or binary)
+     * starting from the next request. Answer is still encoded with the current protocol.
+     */
+    private void hello(String protocol, Connection connection, ResponseWriter out) {
+        if(BinaryProtocol.PROTOCOL_NAME.equals(protocol)) connection.setBinary(true);
+        else if("json".equals(protocol)) connection.setBinary(false);
+        else {
+            out.name("return-code").value(400);
+            return;
+        }
+        out.name("return-code").value(200);
+        out.name("protocol").value(protocol);
+    }
+
+    /**
+     * login method, uses RMI for user callback. See RMIServer.java for actual callback implementation.
+     * A user may be logged in from several connections, but only once on each connection.
+     */
+    private void login(String username, String password, Connection connection, ResponseWriter out) {
         User u =  registeredUsers.get(username);
 
+        if(connection.getSession() != null){
+            out.name("return-code").value(401);
+            return;
+        }
+        //too many attempts for this user or from this address: answered before hashing anything
+        long wait = loginThrottle.acquire(username, connection.getAddress());
+        if(wait > 0){
+            throttledLogins.increment();
+            out.name("return-code").value(429);
+            out.name("retry-after").value(retryAfterSeconds(wait));
+            return;
+        }
+
         //user not found or auth failed
-        if (u == null || u.getStatus() || !PasswordHandler.authenticate(password, u.getPassword(), u.getSalt())) {
+        if (u == null || !PasswordHandler.authenticate(password, u.getPassword(), u.getSalt(), u.getIterations())) {
+            loginThrottle.failed(username);
             //401 - unauthorized - http like
-            response.addProperty("return-code", 401);
-            return response;
+            out.name("return-code").value(401);
+            return;
         }
+        loginThrottle.succeeded(username);
 
-        //auth ok
-        registeredUsers.get(username).setStatus(true);    //set user state to online
-        registeredUsers.get(username).setSessionPort(socketHash);
-        rmiServer.updateUsers(username, true);
-
-        response.addProperty("return-code", 200); //send 200 OK code
+        openSession(u, Session.newToken(), connection, out);
+    }
 
-        //fetch registered user and send status.
-        JsonArray jsonArray = new JsonArray();
-        for(User t : registeredUsers.values()){
-            JsonObject userJson = new JsonObject();
-            userJson.addProperty("username", t.getUsername());
-            userJson.addProperty("status", t.getStatus());
-            jsonArray.add(userJson);
+    /**
+     * Re-attaches a session whose connection dropped less than resume grace period ago (see SessionRegistry.detach)
+     * to connection: a reconnecting client gets its user logged in again without sending, and server hashing,
+     * its password. Answers like login, with the same token.
+     */
+    private void resume(String token, Connection connection, ResponseWriter out) {
+        User u = token == null || connection.getSession() != null ? null : sessions.resume(token);
+        if(u == null){
+            out.name("return-code").value(401);
+            return;
         }
-        JsonObject projects = listProjects(username);
-        response.add("registered-users", jsonArray);
-        response.add("projects-list", projects.get("projects"));
-        return response;
+        openSession(u, token, connection, out);
     }
 
-    /** performs user logout. Returning jsonObject  in case of failure or success either, just changes error code.*/
-    private JsonObject logout(String username) throws RemoteException {
-        JsonObject response = new JsonObject();
+    /** logs user in on connection, writing login response. */
+    private void openSession(User u, String token, Connection connection, ResponseWriter out) {
+        String username = u.getUsername();
+        Session session = new Session(u, connection, token);
+        connection.setSession(session);
+        long version = sessions.add(session);
+
+        //client went away while password was being checked: undo, unless disconnect already did.
+        if(!connection.getChannel().isOpen()){
+            if(connection.takeSession() == session) sessions.remove(session);
+            out.name("return-code").value(401);
+            return;
+        }
+        if(version != 0) rmiServer.updateUsers(username, true, version);
 
-        if(!registeredUsers.get(username).getStatus()){
-            response.addProperty("return-code", 300);
-            return response;
+        out.name("return-code").value(200); //send 200 OK code
+        out.name("token").value(token);
+        out.name("username").value(username);
+
+        //users are listed on demand (list-users), client only learns which presence changes are newer
+        out.name("presence-version").value(presence.getVersion());
+        out.name("projects-list");
+        writeProjects(username, out);
+    }
+
+    /** performs logout of the session bound to connection. Writes return code in case of failure or success either.*/
+    private void logout(String username, Connection connection, ResponseWriter out) {
+        Session session = connection.getSession();
+        if(session == null || !session.getUser().getUsername().equals(username) || connection.takeSession() != session){
+            out.name("return-code").value(300);
+            return;
         }
-        registeredUsers.get(username).setStatus(false);
-        registeredUsers.get(username).setSessionPort(-1);
-        rmiServer.updateUsers(username, false);
-        response.addProperty("return-code", 200);
-        return response;
+        //events were meant for the user logging out, not for whoever logs in next on this connection
+        boardEvents.unsubscribeAll(connection);
+        closeSession(session);
+        out.name("return-code").value(200);
     }
 
 
     /**
      * @param projectname -> new project name.
      * @param username -> user requesting for new project.
-     * @return new JsonObject with return code.
+     * @param out -> response return code is written here.
      *
      * Add project Projectname to project list. Different return codes if projectname already exists
      * or user has not enough privileges to perform action.
      */
-    private JsonObject addProject(String projectname, String username) {
-        JsonObject response = new JsonObject();
+    private void addProject(String projectname, String username, Connection connection, ResponseWriter out) {
         User u = registeredUsers.get(username);
 
-        if(!isLoggedIn(username)) {
-            response.addProperty("return-code", 401);
-            return response;
+        if(!isLoggedIn(connection, username)) {
+            out.name("return-code").value(401);
+            return;
         }
         if(projects.containsKey(projectname)){
-            response.addProperty("return-code", 409);
-            return response;
+            out.name("return-code").value(409);
+            return;
         }
         String multicastAddress = MulticastBaker.getNewMulticastAddress();
 
 
         if(multicastAddress == null){
-            response.addProperty("return-code", 500);
-            return response;
+            out.name("return-code").value(500);
+            return;
         }
 
         Project project = new Project(projectname, u, multicastAddress, fileHandler);
-        projects.putIfAbsent(projectname, project);
+        //project may have been created meanwhile by another reactor
+        if(projects.putIfAbsent(projectname, project) != null){
+            MulticastBaker.releaseAddress(multicastAddress);
+            out.name("return-code").value(409);
+            return;
+        }
         try {
             rmiServer.updateChat(username, projectname, project.getChatAddress());
             fileHandler.saveProject(project);
         }catch (IOException e){
-            response.addProperty("return-code", 500);
-            return response;
+            out.name("return-code").value(500);
+            return;
         }
 
-        response.addProperty("return-code", 201);
-        return response;
+        out.name("return-code").value(201);
     }
 
     /**
@@ -339,33 +740,35 @@ public class Server {
      * @param cardname -> new card name.
      * @param desc -> new card description.
      * @param projectname -> existing project in which card will be created.
-     * @return new JsonObject with return code.
+     * @param out -> response return code is written here.
      *
      * Simply add new card to an existing project. If project does not exists, 401 error code is added to response
      * if card already exists, code 409 is returned to client.
      */
 
-    private JsonObject addCard(String username, String cardname, String desc, String projectname){
-        JsonObject response = new JsonObject();
+    private void addCard(String username, String cardname, String desc, String projectname, Connection connection, ResponseWriter out){
         User u = registeredUsers.get(username);
         Project p = projects.get(projectname);
 
-        if(u == null || !isLoggedIn(username) || p == null || !p.isMember(username)) {
-            response.addProperty("return-code", 401);
-            return response;
+        if(u == null || !isLoggedIn(connection, username) || p == null || !p.isMember(username)) {
+            out.name("return-code").value(401);
+            return;
         }
 
         try {
             Card c = new Card(cardname, desc);
-            p.addCard(c);
+            //published under project lock, so that subscribers get events in version order
+            synchronized (p) {
+                long version = p.addCard(c);
+                boardEvents.cardCreated(projectname, c, version);
+            }
 
         }catch (CardAlreadyExistsException e){
-            response.addProperty("return-code", 409);
-            return response;
+            out.name("return-code").value(409);
+            return;
         }
 
-        response.addProperty("return-code", 201);
-        return response;
+        out.name("return-code").value(201);
     }
 
     /**
@@ -375,67 +778,78 @@ public class Server {
      * @param from starting list
      * @param to destination list
      * @param projectname project in which card has to be moved.
-     * @return JsonObject with 200 code in case of success, else 401 if unauthorized or not found, 405 if
+     * @param out 200 code is written in case of success, else 401 if unauthorized or not found, 405 if
      * request does not meet card move constraints.
      */
 
-    private JsonObject moveCard(String username, String cardname, String from, String to, String projectname){
+    private void moveCard(String username, String cardname, String from, String to, String projectname, Connection connection, ResponseWriter out){
         //user is logged in, member and card exists in project.
-        JsonObject response = new JsonObject();
         Project p = projects.get(projectname);
 
-        if(!isLoggedIn(username) || p == null || !p.isMember(username) ){
-            response.addProperty("return-code", 401);
-            return response;
+        if(!isLoggedIn(connection, username) || p == null || !p.isMember(username) ){
+            out.name("return-code").value(401);
+            return;
         }
 
         try{
-            p.moveCard(cardname, from, to);
+            //published under project lock, see addCard
+            synchronized (p) {
+                long version = p.moveCard(cardname, from, to);
+                boardEvents.cardMoved(projectname, cardname, from, to, version);
+            }
         }catch (CardNotFoundException | CardMoveForbidden e){
-            response.addProperty("return-code", 405);
-            return response;
+            out.name("return-code").value(405);
+            return;
         }
 
-        response.addProperty("return-code", 200);
-        return response;
+        out.name("return-code").value(200);
     }
 
     /**
      *
      * @param username username demanding for action.
      * @param projectname project name for card list.
-     * @return JsonObject with 200 success code and JsonArray with card list.
+     * @param out 200 success code and card list array are written here.
      */
 
-    private JsonObject listCards(String username, String projectname){
-        JsonObject response = new JsonObject();
+    private void listCards(String username, String projectname, String cursor, String limit, String fields,
+                           Connection connection, ResponseWriter out){
         Project p = projects.get(projectname);
 
         //permissions checks
-        if (!isLoggedIn(username) || p == null || !p.isMember(username)) {
-            response.addProperty("return-code", 401);
-            return response;
+        if (!isLoggedIn(connection, username) || p == null || !p.isMember(username)) {
+            out.name("return-code").value(401);
+            return;
         }
 
+        String after;
+        int pageSize;
+        Set<String> projection;
         try {
+            after = Pagination.decode("cards", cursor);
+            pageSize = Pagination.limit(limit);
+            projection = Pagination.fields(fields);
+        }catch (IllegalArgumentException e){
+            out.name("return-code").value(400);
+            return;
+        }
 
-            ArrayList<Card> cardList = p.getCards();
-            JsonArray cardsJson = new JsonArray();
-            for (Card c : cardList) {
-                JsonObject json = new JsonObject();
-                json.addProperty("card-name", c.getName());
-                json.addProperty("card-state", c.getStatus());
-                json.addProperty("card-desc", c.getDescription());
-                cardsJson.add(json);
-            }
-
-            response.addProperty("return-code", 200);
-            response.add("card-list", cardsJson);
-            return response;
-        }catch (Exception e){
-            response.addProperty("return-code", 500);
-            return response;
+        //one card more than requested tells whether another page follows
+        ArrayList<Card> cardList = p.getCardsAfter(after, pageSize + 1);
+        boolean more = cardList.size() > pageSize;
+        if(more) cardList.remove(pageSize);
+
+        out.name("return-code").value(200);
+        out.name("card-list").beginArray();
+        for (Card c : cardList) {
+            out.beginObject();
+            out.name("card-name").value(c.getName());
+            if(Pagination.includes(projection, "card-state")) out.name("card-state").value(c.getStatus());
+            if(Pagination.includes(projection, "card-desc")) out.name("card-desc").value(c.getDescription());
+            out.endObject();
         }
+        out.endArray();
+        if(more) out.name("next-cursor").value(Pagination.encode("cards", cardList.get(pageSize - 1).getName()));
     }
 
     /**
@@ -443,26 +857,28 @@ public class Server {
      * @param username user demanding for action.
      * @param projectname project containing card.
      * @param cardname card to show.
-     * @return JsonObject with card properties and success code 200, or error codes in case of card not found.
+     * @param out card properties and success code 200 are written here, or error codes in case of card not found.
      */
 
-    private JsonObject showCard(String username, String projectname, String cardname){
-        JsonObject response = new JsonObject();
+    private void showCard(String username, String projectname, String cardname, Connection connection, ResponseWriter out){
         Project p = projects.get(projectname);
 
         //permissions checks
-        if(!isLoggedIn(username) || p == null || !p.isMember(username) ) {
-            response.addProperty("return-code", 401);
-            return response;
+        if(!isLoggedIn(connection, username) || p == null || !p.isMember(username) ) {
+            out.name("return-code").value(401);
+            return;
         }
         try {
-            response.addProperty("return-code", 200);
-            response.add("card-info", p.getCardJson(cardname));
+            Card card = p.getCard(cardname);
+            out.name("return-code").value(200);
+            out.name("card-info").beginObject();
+            out.name("name").value(card.getName());
+            out.name("description").value(card.getDescription());
+            out.name("currentlist").value(card.getStatus());
+            out.endObject();
         }catch (CardNotFoundException e){
-            response.addProperty("return-code", 404);
+            out.name("return-code").value(404);
         }
-        return response;
-
     }
 
     /**
@@ -470,63 +886,81 @@ public class Server {
      * @param username user demanding for action.
      * @param projectname project containing card.
      * @param cardname card to show.
-     * @return JsonObject with JsonArray containing card history.
+     * @param out array containing card history is written here.
      */
 
-    private JsonObject getCardHistory(String username, String projectname, String cardname){
-        JsonObject response = new JsonObject();
+    private void getCardHistory(String username, String projectname, String cardname, String cursor, String limit,
+                                String fields, Connection connection, ResponseWriter out){
         Project p = projects.get(projectname);
 
-        if(!isLoggedIn(username) || p == null || !p.isMember(username) ){
-            response.addProperty("return-code", 401);
-            return response;
+        if(!isLoggedIn(connection, username) || p == null || !p.isMember(username) ){
+            out.name("return-code").value(401);
+            return;
+        }
+
+        int start;
+        int pageSize;
+        Set<String> projection;
+        try {
+            String position = Pagination.decode("history", cursor);
+            start = position == null ? 0 : Integer.parseInt(position);
+            if(start < 0) throw new IllegalArgumentException("negative cursor");
+            pageSize = Pagination.limit(limit);
+            projection = Pagination.fields(fields);
+        }catch (IllegalArgumentException e){
+            out.name("return-code").value(400);
+            return;
         }
 
         try{
-            JsonArray history =  new JsonArray();
-            ArrayList<CardEvent> cardHistory = p.getCard(cardname).getCardHistory();
+            ArrayList<CardEvent> cardHistory = p.getCard(cardname).getCardHistory(start, pageSize + 1);
+            boolean more = cardHistory.size() > pageSize;
+            if(more) cardHistory.remove(pageSize);
+
+            out.name("return-code").value(200);
+            out.name("card-history").beginArray();
             for(CardEvent e : cardHistory){
-                JsonObject event = new JsonObject();
-                event.addProperty("date", e.getDate());
-                event.addProperty("from", e.getFrom());
-                event.addProperty("to",   e.getTo());
-                history.add(event);
+                out.beginObject();
+                if(Pagination.includes(projection, "date")) out.name("date").value(e.getDate());
+                if(Pagination.includes(projection, "from")) out.name("from").value(e.getFrom());
+                if(Pagination.includes(projection, "to")) out.name("to").value(e.getTo());
+                out.endObject();
             }
-            response.add("card-history", history);
-            response.addProperty("return-code", 200);
-            return response;
+            out.endArray();
+            if(more) out.name("next-cursor").value(Pagination.encode("history", Integer.toString(start + pageSize)));
 
         }catch (CardNotFoundException e){
-            response.addProperty("return-code", 404);
-            return response;
+            out.name("return-code").value(404);
         }
     }
 
     /**
      * @param username user demanding for action.
-     * @return JsonObject with JsonArray containing actual user's projects.
+     * @param out array containing actual user's projects is written here.
      */
 
-    private JsonObject listProjects(String username) {
-        JsonObject response = new JsonObject();
-
-        if (!isLoggedIn(username)) {
-            response.addProperty("return-code", 401);
-            return response;
+    private void listProjects(String username, Connection connection, ResponseWriter out) {
+        if (!isLoggedIn(connection, username)) {
+            out.name("return-code").value(401);
+            return;
         }
 
-        JsonArray jsonArray = new JsonArray();
+        out.name("projects");
+        writeProjects(username, out);
+    }
+
+    /** writes array of projects username is member of, with their chat address. */
+    private void writeProjects(String username, ResponseWriter out) {
+        out.beginArray();
         for (Project p : projects.values()) {
-            JsonObject jsonObject = new JsonObject();
             if (p.isMember(username)){
-                jsonObject.addProperty("name", p.getName());
-                jsonObject.addProperty("chat-addr", p.getChatAddress());
-                jsonArray.add(jsonObject);
+                out.beginObject();
+                out.name("name").value(p.getName());
+                out.name("chat-addr").value(p.getChatAddress());
+                out.endObject();
             }
         }
-
-        response.add("projects", jsonArray);
-        return response;
+        out.endArray();
     }
 
 
@@ -534,28 +968,31 @@ public class Server {
      *
      * @param username user demanding for action.
      * @param projectname project to delete
-     * @return JsonObject with 200 code in case of success, other error codes in case of failure.
+     * @param out 200 code is written in case of success, other error codes in case of failure.
      */
 
-    private JsonObject deleteProject(String username, String projectname){
-        JsonObject response = new JsonObject();
+    private void deleteProject(String username, String projectname, Connection connection, ResponseWriter out){
         Project p = projects.get(projectname);
 
-        if(!isLoggedIn(username) || p == null || !p.isMember(username) ){
-            response.addProperty("return-code", 401);
-            return response;
+        if(!isLoggedIn(connection, username) || p == null || !p.isMember(username) ){
+            out.name("return-code").value(401);
+            return;
         }
 
         if(!p.isAllDone()){
-            response.addProperty("return-code", 403);
-            return response;
+            out.name("return-code").value(403);
+            return;
+        }
+        //a concurrent delete may have removed it already: only the one removing it releases its chat address
+        if(!projects.remove(p.getName(), p)){
+            out.name("return-code").value(404);
+            return;
         }
-        projects.remove(p.getName());
+        boardEvents.dropProject(projectname);
         MulticastBaker.releaseAddress(p.getChatAddress());
         rmiServer.leaveGroup(p);
         fileHandler.deleteProject(projectname);
-        response.addProperty("return-code", 200);
-        return response;
+        out.name("return-code").value(200);
     }
 
 
@@ -563,29 +1000,27 @@ public class Server {
      *
      * @param username user demanding for action.
      * @param newMember new member name.
-     * @return JsonObject with 201 code if success.
+     * @param out 201 code is written if success.
      */
-    private JsonObject addMember(String username, String newMember, String projectname) {
-        JsonObject response = new JsonObject();
-
+    private void addMember(String username, String newMember, String projectname, Connection connection, ResponseWriter out) {
         //check if current user is logged in
-        if (!isLoggedIn(username)) {
-            response.addProperty("return-code", 401);
-            return response;
+        if (!isLoggedIn(connection, username)) {
+            out.name("return-code").value(401);
+            return;
         }
 
         //check if new user is registered
         User u = registeredUsers.get(newMember);
         Project p = projects.get(projectname);
         if(u == null || p == null){
-            response.addProperty("return-code", 404);
-            return response;
+            out.name("return-code").value(404);
+            return;
         }
 
         //check if current user is an actual member of the project
         if(!p.isMember(username)){
-            response.addProperty("return-code", 401);
-            return response;
+            out.name("return-code").value(401);
+            return;
         }
 
         p.addMember(u);
@@ -594,11 +1029,10 @@ public class Server {
             rmiServer.updateChat(newMember, projectname, p.getChatAddress());
             fileHandler.saveProject(p);
         }catch (IOException e){
-            response.addProperty("return-code", 500);
-            return response;
+            out.name("return-code").value(500);
+            return;
         }
-        response.addProperty("return-code", 201);
-        return response;
+        out.name("return-code").value(201);
     }
 
 
@@ -606,48 +1040,166 @@ public class Server {
      *
      * @param username user demanding for action.
      * @param projectname project to show
-     * @return JsonObject containing JsonArray with members list.
+     * @param out array with members list is written here.
      */
-    private JsonObject showMembers(String username, String projectname){
+    private void showMembers(String username, String projectname, Connection connection, ResponseWriter out){
         Project p = projects.get(projectname);
-        JsonObject response = new JsonObject();
 
         //check if user is logged in and exists
-        if (!isLoggedIn(username)) {
-            response.addProperty("return-code", 401);
-            return response;
+        if (!isLoggedIn(connection, username)) {
+            out.name("return-code").value(401);
+            return;
         }
 
         //check if project exists
         if(p == null){
-            response.addProperty("return-code", 404);
-            return response;
+            out.name("return-code").value(404);
+            return;
         }
 
         //check if current user is an actual member of the project
         if(!p.isMember(username)){
-            response.addProperty("return-code", 401);
-            return response;
+            out.name("return-code").value(401);
+            return;
         }
 
-        JsonArray members = new JsonArray();
+        out.name("return-code").value(200);
+        out.name("members").beginArray();
         for(String s : p.getMembers()){
-            members.add(s);
+            out.value(s);
         }
+        out.endArray();
+    }
 
-        response.addProperty("return-code", 200);
-        response.add("members", members);
-        return response;
+    /**
+     * Subscribes connection to card events of a project: every card created or moved from now on is pushed
+     * to it as an event frame, in between responses (see BoardEvents). Events for requests of this very
+     * connection may arrive before their response.
+     */
+    private void subscribe(String username, String projectname, Connection connection, ResponseWriter out){
+        Project p = projects.get(projectname);
+
+        if(!isLoggedIn(connection, username) || p == null || !p.isMember(username) ){
+            out.name("return-code").value(401);
+            return;
+        }
+        boardEvents.subscribe(projectname, connection);
+        out.name("return-code").value(200);
+        out.name("version").value(p.getVersion());
+    }
+
+    private void unsubscribe(String username, String projectname, Connection connection, ResponseWriter out){
+        if(!isLoggedIn(connection, username) || !connection.getSubscriptions().contains(projectname)){
+            out.name("return-code").value(404);
+            return;
+        }
+        boardEvents.unsubscribe(projectname, connection);
+        out.name("return-code").value(200);
     }
 
     /**
-     * Chechs whether user is online.
+     * Incremental board refresh: sends cards changed after the project version client got last time
+     * (with their current state) and the new version to sync from next time. If client version is missing
+     * or too old for the project change log, every card is sent and "full" is true.
+     * Members are sent only if they changed.
+     */
+    private void syncProject(String username, String projectname, String version, Connection connection, ResponseWriter out){
+        Project p = projects.get(projectname);
+
+        if(!isLoggedIn(connection, username) || p == null || !p.isMember(username) ){
+            out.name("return-code").value(401);
+            return;
+        }
+
+        long since;
+        try {
+            since = version == null ? -1 : Long.parseLong(version);
+        }catch (NumberFormatException e){
+            out.name("return-code").value(400);
+            return;
+        }
+
+        Project.Delta delta = p.changesSince(since);
+        out.name("return-code").value(200);
+        out.name("version").value(delta.version);
+        out.name("full").value(delta.full);
+        out.name("card-list").beginArray();
+        for (Card c : delta.cards) {
+            out.beginObject();
+            out.name("card-name").value(c.getName());
+            out.name("card-state").value(c.getStatus());
+            out.name("card-desc").value(c.getDescription());
+            out.endObject();
+        }
+        out.endArray();
+        if(delta.members != null){
+            out.name("members").beginArray();
+            for(String member : delta.members) out.value(member);
+            out.endArray();
+        }
+    }
+
+    /**
+     * A page of registered users with their status, sorted by username, or of online users only.
+     * Response version is the presence version page was read at: a change with a greater version
+     * may or may not be reflected by the page, clients apply it anyway (see Presence).
+     */
+    private void listUsers(String username, String cursor, String limit, boolean onlineOnly, Connection connection, ResponseWriter out){
+        if(!isLoggedIn(connection, username)){
+            out.name("return-code").value(401);
+            return;
+        }
+        String kind = onlineOnly ? "online" : "users";
+        String after;
+        int pageSize;
+        try {
+            after = Pagination.decode(kind, cursor);
+            pageSize = Pagination.limit(limit);
+        }catch (IllegalArgumentException e){
+            out.name("return-code").value(400);
+            return;
+        }
+
+        //read before the page, see above
+        long version = presence.getVersion();
+        //one user more than requested tells whether another page follows
+        List<User> page = presence.page(after, pageSize + 1, onlineOnly);
+        boolean more = page.size() > pageSize;
+        if(more) page.remove(pageSize);
+
+        out.name("return-code").value(200);
+        out.name("version").value(version);
+        out.name("users").beginArray();
+        for(User u : page){
+            out.beginObject();
+            out.name("username").value(u.getUsername());
+            if(!onlineOnly) out.name("status").value(u.getStatus());
+            out.endObject();
+        }
+        out.endArray();
+        if(more) out.name("next-cursor").value(Pagination.encode(kind, page.get(pageSize - 1).getUsername()));
+    }
+
+    /** server metrics (see Metrics), for users listed as admins in server configuration only. */
+    private void stats(String username, Connection connection, ResponseWriter out){
+        if(!isLoggedIn(connection, username) || !config.admins.contains(username)){
+            out.name("return-code").value(401);
+            return;
+        }
+        out.name("return-code").value(200);
+        out.name("stats");
+        Metrics.write(out);
+    }
+
+    /**
+     * Chechs whether user is logged in on connection.
+     * @param connection connection request came from
      * @param username username associated to a particular user
-     * @return false if username not found or not logged in;
-     *         true if username found and logged in == true
+     * @return false if no user or another user is logged in on connection;
+     *         true if username is the user logged in on connection
      */
-    private boolean isLoggedIn(String username){
-        User u = registeredUsers.get(username);
-        return u != null && u.getStatus();
+    private boolean isLoggedIn(Connection connection, String username){
+        Session session = connection.getSession();
+        return session != null && session.getUser().getUsername().equals(username);
     }
 }
@@ -0,0 +1,64 @@
+package server;
+
+import server.utils.PasswordHandler;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/** Server settings, filled in by WorthServer from command line options. Fields hold defaults. */
+public class ServerConfig {
+
+    /** how TCP connections are served. */
+    public enum Engine {
+        /** acceptor plus selector threads multiplexing non-blocking channels (see Reactor). */
+        NIO,
+        /** blocking I/O with one virtual thread per connection (see VirtualThreadEngine). */
+        VIRTUAL
+    }
+
+    public String address = "localhost";
+    public int tcpPort = 6789;
+    public int rmiPort = 6790;
+    public String registryName = "WORTH-RMI";
+    public String projectDir = System.getProperty("user.dir");
+
+    public Engine engine = Engine.NIO;
+    public int reactorThreads = Runtime.getRuntime().availableProcessors();
+    public int workerThreads = 0;
+    public int workerQueueSize = 1024;
+    public int writeHighWaterMark = 1024 * 1024;
+
+    //seconds a connection may stay silent before being closed, 0 never closes idle connections.
+    public int idleTimeout = 300;
+    public int maxConnections = 10000;
+    public int maxConnectionsPerAddress = 64;
+
+    //logins are verified on their own bounded pool, so password hashing never stalls request threads
+    public int authThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    public int authQueueSize = 1024;
+    //PBKDF2 iterations new passwords are hashed with, existing users keep the cost they were hashed with
+    public int hashIterations = PasswordHandler.DEFAULT_ITERATIONS;
+
+    //login attempts throttling (see LoginThrottle): bucket size and refill rate per username and per client
+    //address, a rate of 0 disables throttling by that key. Failures block a username up to loginBackoffMax seconds.
+    public int userLoginBurst = 5;
+    public int userLoginsPerMinute = 6;
+    public int addressLoginBurst = 30;
+    public int addressLoginsPerMinute = 60;
+    public int loginBackoffMax = 300;
+
+    //RMI callbacks are sent from their own pool (see RMIServer): a client with callbackQueueSize callbacks waiting,
+    //or not answering one within callbackTimeout seconds, is dropped. A timeout of 0 lets calls wait forever.
+    public int callbackThreads = 2;
+    public int callbackQueueSize = 256;
+    public int callbackTimeout = 5;
+
+    //seconds a session whose connection dropped may be resumed by its token, 0 to never resume sessions
+    public int resumeGrace = 60;
+
+    //users allowed to read server metrics through the stats request
+    public Set<String> admins = new HashSet<>();
+    //file metrics are dumped to every metricsInterval seconds, null for no dump
+    public String metricsFile = null;
+    public int metricsInterval = 60;
+}
@@ -0,0 +1,49 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * A logged in user on a given connection. A user may hold several sessions, one per connection.
+ * Each session is known to its client by an opaque random token, which authorizes its requests and lets
+ * a reconnecting client resume it without logging in again (see SessionRegistry.detach).
+ */
+public class Session {
+    private static final SecureRandom random = new SecureRandom();
+
+    private final User user;
+    private final Connection connection;
+    private final String token;
+
+    public Session(User user, Connection connection, String token){
+        this.user = user;
+        this.connection = connection;
+        this.token = token;
+    }
+
+    /** @return a new unguessable session token. */
+    public static String newToken(){
+        byte[] token = new byte[24];
+        random.nextBytes(token);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+    }
+
+    public User getUser(){
+        return user;
+    }
+
+    public Connection getConnection(){
+        return connection;
+    }
+
+    public String getToken(){
+        return token;
+    }
+
+    /** constant time: response time tells nothing about how much of token matched. */
+    public boolean hasToken(String token){
+        return MessageDigest.isEqual(this.token.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,118 @@
+package server;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Open sessions by username. Each Connection points to its own Session, so login, logout and
+ * disconnect cleanup never scan users; a user is online as long as one of its sessions is open.
+ * Sessions whose connection dropped are kept by token for a grace period, so that a reconnecting client
+ * may resume them instead of logging in again.
+ */
+public class SessionRegistry {
+    private final ConcurrentHashMap<String, Set<Session>> sessions = new ConcurrentHashMap<>();
+
+    private final Presence presence;
+    private final long grace;
+    //sessions whose connection dropped by token, and in detach order: since grace never changes,
+    //that is expiry order too and expired ones are purged from the head
+    private final ConcurrentHashMap<String, Detached> detached = new ConcurrentHashMap<>();
+    private final Queue<Detached> expiries = new ConcurrentLinkedQueue<>();
+
+    private static class Detached {
+        final User user;
+        final String token;
+        final long expiry;
+
+        Detached(User user, String token, long expiry){
+            this.user = user;
+            this.token = token;
+            this.expiry = expiry;
+        }
+    }
+
+    /**
+     * @param presence where users going online and offline are recorded.
+     * @param grace milliseconds a dropped session may be resumed for, 0 to never resume sessions.
+     */
+    public SessionRegistry(Presence presence, long grace){
+        this.presence = presence;
+        this.grace = grace;
+    }
+
+    /**
+     * records session, marking its user online. Presence changes of a user are recorded while holding
+     * its entry, so their versions follow the order they happen in.
+     * @return presence version of user going online if it is the first session of its user, 0 otherwise.
+     */
+    public long add(Session session){
+        User user = session.getUser();
+        long[] version = {0};
+        sessions.compute(user.getUsername(), (name, userSessions) -> {
+            if(userSessions == null){
+                userSessions = ConcurrentHashMap.newKeySet();
+                version[0] = presence.changed(user, true);
+            }
+            userSessions.add(session);
+            return userSessions;
+        });
+        return version[0];
+    }
+
+    /**
+     * forgets session, marking its user offline if it was the last one.
+     * @return presence version of user going offline if it was its last session, 0 otherwise.
+     */
+    public long remove(Session session){
+        User user = session.getUser();
+        long[] version = {0};
+        sessions.computeIfPresent(user.getUsername(), (name, userSessions) -> {
+            if(!userSessions.remove(session) || !userSessions.isEmpty()) return userSessions;
+            version[0] = presence.changed(user, false);
+            return null;
+        });
+        return version[0];
+    }
+
+    /**
+     * Keeps an already removed session resumable by its token until grace period expires.
+     * To be called when its connection dropped, not on logout.
+     */
+    public void detach(Session session){
+        purge();
+        if(grace == 0) return;
+        Detached d = new Detached(session.getUser(), session.getToken(), System.nanoTime() + grace * 1_000_000);
+        detached.put(d.token, d);
+        expiries.add(d);
+    }
+
+    /**
+     * Forgets a detached session, a token resumes a single connection.
+     * @return user session belonged to, or null if token is unknown or its grace period expired.
+     */
+    public User resume(String token){
+        purge();
+        Detached d = detached.remove(token);
+        if(d == null || System.nanoTime() - d.expiry > 0) return null;
+        return d.user;
+    }
+
+    private void purge(){
+        long now = System.nanoTime();
+        Detached head;
+        while((head = expiries.peek()) != null && now - head.expiry > 0){
+            if(expiries.remove(head)) detached.remove(head.token, head);
+        }
+    }
+
+    public boolean isOnline(String username){
+        return sessions.containsKey(username);
+    }
+
+    /** users having at least one session. */
+    public int getOnlineCount(){
+        return sessions.size();
+    }
+}
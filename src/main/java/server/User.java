@@ -1,17 +1,25 @@
 package server;
 
+import server.utils.PasswordHandler;
+
 public class User {
 
-    private int sessionHash;
     private String username;
     private String password;
     private String salt;
-    private boolean online = false;
+    //PBKDF2 cost password was hashed with, see PasswordHandler
+    private int iterations;
+    private volatile boolean online = false;
 
     public User(String username, String password, String salt){
+        this(username, password, salt, PasswordHandler.DEFAULT_ITERATIONS);
+    }
+
+    public User(String username, String password, String salt, int iterations){
         this.username =  username;
         this.password = password;
         this.salt = salt;
+        this.iterations = iterations;
     }
 
     public String getUsername(){
@@ -32,17 +40,12 @@ public class User {
 
     public String getSalt(){ return this.salt; }
 
+    public int getIterations(){ return this.iterations; }
+
+    /** true while user has at least one open session, see SessionRegistry. */
     public boolean getStatus() { return this.online; }
 
     public void setStatus(boolean status){ this.online = status; }
 
     public void setSalt(String salt) { this.salt = salt; }
-
-    public void setSessionPort(int s){
-        this.sessionHash = s;
-    }
-
-    public int getSessionPort(){
-        return this.sessionHash;
-    }
 }
@@ -0,0 +1,184 @@
+package server;
+
+import server.metrics.Metrics;
+import server.utils.BufferPool;
+import server.utils.Log;
+import server.utils.TimerWheel;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Alternative to the selector engine: blocking I/O with one virtual thread per accepted connection.
+ * Each thread reads frames, computes requests through Server and writes responses back in order,
+ * so a parked (idle) connection costs just its stack and read buffer, not a platform thread.
+ * Idle connections are closed by a reaper thread owning a timer wheel: closing the channel wakes up
+ * the blocked reader, which then cleans up as if client went away.
+ */
+public class VirtualThreadEngine implements Runnable {
+    private final Server server;
+    private final ServerSocketChannel serverSocketChannel;
+    private final BufferPool bufferPool;
+    private final Thread.Builder connectionThreads = Thread.ofVirtual().name("worth-connection-", 0);
+    private static final long IDLE_CHECK_TICK = 1000;
+    private static final LongAdder bytesIn = Metrics.counter("bytes.in");
+    private static final LongAdder bytesOut = Metrics.counter("bytes.out");
+    //pushed frames a connection may have waiting before new ones are dropped
+    private static final int MAX_PENDING_PUSHES = 1024;
+    //seconds a connection waits for its login to be verified before answering 503
+    private static final long LOGIN_TIMEOUT = 30;
+    //guarded by itself, ticked by reaper thread.
+    private final TimerWheel timers = new TimerWheel(IDLE_CHECK_TICK, 512);
+    private final long idleTimeout;
+
+    /** @param idleTimeout milliseconds after which a silent connection is closed, 0 to keep it open. */
+    public VirtualThreadEngine(Server server, ServerSocketChannel serverSocketChannel, BufferPool bufferPool, long idleTimeout){
+        this.server = server;
+        this.serverSocketChannel = serverSocketChannel;
+        this.bufferPool = bufferPool;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /** acceptor loop, runs on the calling thread. */
+    @Override
+    public void run() {
+        if(idleTimeout > 0){
+            Thread reaper = new Thread(this::reap, "worth-reaper");
+            reaper.setDaemon(true);
+            reaper.start();
+        }
+        while(true){
+            try {
+                SocketChannel socketChannel = serverSocketChannel.accept();
+                Connection connection = server.admit(socketChannel);
+                if(connection == null) continue;
+                Log.debug("Client connected!");
+                if(idleTimeout > 0) synchronized (timers){
+                    timers.schedule(idleTimeout, () -> checkIdle(connection));
+                }
+                connection.setPusher(frame -> {
+                    if(connection.offerPush(frame, MAX_PENDING_PUSHES)) connectionThreads.start(() -> drainPushes(connection));
+                });
+                connectionThreads.start(() -> serve(connection));
+            }catch (IOException e){
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void serve(Connection connection){
+        SocketChannel socketChannel = connection.getChannel();
+        //a blocked read needs its buffer for as long as the connection is idle
+        ByteBuffer buffer = bufferPool.acquire(BufferPool.MEDIUM);
+        try {
+            while(true) {
+                //blocks (parking the virtual thread) until client sends something
+                buffer.clear();
+                int read = socketChannel.read(buffer);
+                if (read < 0) break;
+                bytesIn.add(read);
+                connection.touch();
+                buffer.flip();
+                connection.getDecoder().feed(buffer);
+
+                //answer every complete request in arrival order, so clients may pipeline commands.
+                byte[] frame;
+                while ((frame = connection.getDecoder().next()) != null) {
+                    write(connection, respond(connection, frame));
+                    connection.touch();
+                }
+            }
+        }catch (ProtocolException e){
+            //peer is not speaking our framing, stream cannot be resynchronized.
+            Log.debug(() -> e.getMessage() + ", closing connection.");
+        }catch (IOException ignored){
+            //connection reset by peer
+        }
+        bufferPool.release(buffer);
+        server.disconnect(connection);
+    }
+
+    /**
+     * Logins are verified on the auth pool rather than here: hashing would keep a carrier thread busy,
+     * waiting for the response parks this virtual thread instead. The wait is bounded, so a login lost
+     * by the auth pool (e.g. while shutting down) cannot hang the connection.
+     */
+    private List<ByteBuffer> respond(Connection connection, byte[] frame){
+        CompletableFuture<List<ByteBuffer>> login = new CompletableFuture<>();
+        List<ByteBuffer> response = server.respond(frame, connection, login::complete);
+        if(response != null) return response;
+        try {
+            return login.get(LOGIN_TIMEOUT, TimeUnit.SECONDS);
+        }catch (InterruptedException | ExecutionException | TimeoutException e){
+            //a response coming after all is not written, give its buffers back
+            login.thenAccept(late -> late.forEach(bufferPool::release));
+            return server.encodeReturnCode(503, connection);
+        }
+    }
+
+    private void reap(){
+        while(true){
+            long wait;
+            synchronized (timers){
+                timers.advance();
+                wait = timers.millisToNextTick();
+            }
+            try {
+                Thread.sleep(wait == 0 ? IDLE_CHECK_TICK : wait);
+            }catch (InterruptedException e){
+                return;
+            }
+        }
+    }
+
+    /** runs on reaper thread, holding timers lock. See Reactor.checkIdle. */
+    private void checkIdle(Connection connection){
+        if(!connection.getChannel().isOpen()) return;
+        long idle = (System.nanoTime() - connection.getLastActivity()) / 1_000_000;
+        if(idle >= idleTimeout){
+            Log.debug("Closing idle connection");
+            try {
+                connection.getChannel().close();
+            }catch (IOException ignored){ }
+            return;
+        }
+        timers.schedule(Math.max(idleTimeout - idle, IDLE_CHECK_TICK), () -> checkIdle(connection));
+    }
+
+    /** writes pushed frames on a thread of their own, so a slow client never blocks the thread pushing them. */
+    private void drainPushes(Connection connection){
+        List<ByteBuffer> frame;
+        while((frame = connection.pollPush()) != null){
+            try {
+                write(connection, frame);
+            }catch (IOException e){
+                //reader thread notices the failure as well and cleans up
+                try {
+                    connection.getChannel().close();
+                }catch (IOException ignored){ }
+            }
+        }
+    }
+
+    /** writes a whole frame. Responses and pushed frames are written by different threads, one at a time. */
+    private void write(Connection connection, List<ByteBuffer> frame) throws IOException {
+        ByteBuffer[] buffers = frame.toArray(new ByteBuffer[0]);
+        //a lock, not a monitor: blocking in a synchronized block would pin the carrier thread
+        connection.getWriteLock().lock();
+        try {
+            while (buffers[buffers.length - 1].hasRemaining()) bytesOut.add(connection.getChannel().write(buffers));
+        }finally {
+            connection.getWriteLock().unlock();
+            for(ByteBuffer b : buffers) bufferPool.release(b);
+        }
+    }
+}
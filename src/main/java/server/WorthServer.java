@@ -1,27 +1,45 @@
 package server;
 import org.apache.commons.cli.*;
+import server.utils.Log;
 import server.utils.Printer;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.Arrays;
 
 public class WorthServer {
 
-    private static int TCP_PORT = 0;
-    private static int RMI_PORT = 0;
-    private static String ADDRESS = null;
-    private static String WORTHDIR = null;
-    private static String REGISTRY_NAME = null;
-;
     //todo handle exceptions
     public static void main(String[] args) throws IOException {
 
+        ServerConfig config = new ServerConfig();
         Options options = new Options();
         options.addOption("b", "bind-address",true,  "Server Address    - default localhost");
         options.addOption("p", "tcp-port",    true,  "Server TCP Port   - default 6789");
         options.addOption("r", "rmi-port",    true,  "Server RMI Port   - default 6790");
         options.addOption("n", "registry-name",    true,  "RMI Registry name   - default WORTH-RMI");
         options.addOption("d", "project-dir", true,  "Project Directory - default your_current_directory/WORTH");
+        options.addOption("e", "engine",      true,  "Connection engine: nio (selector threads) or virtual (thread per connection) - default nio");
+        options.addOption("t", "reactor-threads", true, "Selector threads serving connections - default available cores");
+        options.addOption("w", "worker-threads", true, "Threads computing requests, 0 to compute on selector threads - default 0");
+        options.addOption("q", "worker-queue", true, "Requests waiting for a worker before answering 503 - default 1024");
+        options.addOption("m", "write-high-water", true, "Unsent response bytes after which a client is no more read - default 1MB");
+        options.addOption("i", "idle-timeout", true, "Seconds after which a silent client is disconnected, 0 never - default 300");
+        options.addOption("c", "max-connections", true, "Open client connections limit - default 10000");
+        options.addOption("a", "max-connections-per-address", true, "Open connections limit for each client address - default 64");
+        options.addOption("l", "log-level",   true,  "Log level: debug, info, warning, error or off - default info");
+        options.addOption("u", "auth-threads", true, "Threads verifying login passwords - default half the available cores");
+        options.addOption("U", "auth-queue", true, "Logins waiting for an auth thread before answering 503 - default 1024");
+        options.addOption("H", "hash-iterations", true, "PBKDF2 iterations new passwords are hashed with - default 65536");
+        options.addOption("L", "user-login-rate", true, "Login attempts per minute allowed to a username, 0 unlimited - default 6");
+        options.addOption("J", "address-login-rate", true, "Login attempts per minute allowed to a client address, 0 unlimited - default 60");
+        options.addOption("o", "callback-threads", true, "Threads sending RMI callbacks to clients - default 2");
+        options.addOption("O", "callback-queue", true, "Callbacks waiting for a client before it is dropped - default 256");
+        options.addOption("T", "callback-timeout", true, "Seconds a client has to answer a callback before it is dropped, 0 never - default 5");
+        options.addOption("g", "resume-grace", true, "Seconds a dropped session may be resumed without logging in, 0 never - default 60");
+        options.addOption("A", "admins",      true,  "Comma separated users allowed to read server metrics (stats command) - default none");
+        options.addOption("M", "metrics-file", true, "File server metrics are periodically dumped to - default no dump");
+        options.addOption("I", "metrics-interval", true, "Seconds between metrics dumps - default 60");
         options.addOption("h", "help",        false, "Prompt help dialog");
 
         HelpFormatter helpFormatter = new HelpFormatter();
@@ -36,26 +54,108 @@ public class WorthServer {
             }
 
             if (commandLine.hasOption("b") || commandLine.hasOption("--bind-address"))
-                 ADDRESS = (commandLine.getOptionValues("b")[0]);
-            else ADDRESS = InetAddress.getLocalHost().getHostAddress();
+                 config.address = (commandLine.getOptionValues("b")[0]);
+            else config.address = InetAddress.getLocalHost().getHostAddress();
 
             if (commandLine.hasOption("p") || commandLine.hasOption("--tcp-port") )
-                 TCP_PORT = Integer.parseInt(commandLine.getOptionValues("p")[0]);
-            else TCP_PORT = 6789;
+                 config.tcpPort = Integer.parseInt(commandLine.getOptionValues("p")[0]);
 
             if (commandLine.hasOption("r") || commandLine.hasOption("--rmi-port") )
-                 RMI_PORT = Integer.parseInt(commandLine.getOptionValues("r")[0]);
-            else RMI_PORT = 6790;
+                 config.rmiPort = Integer.parseInt(commandLine.getOptionValues("r")[0]);
 
             if (commandLine.hasOption("d") || commandLine.hasOption("--project-dir"))
-                 WORTHDIR = commandLine.getOptionValues("d")[0];
-            else WORTHDIR = System.getProperty("user.dir");
+                 config.projectDir = commandLine.getOptionValues("d")[0];
 
             if (commandLine.hasOption("n") || commandLine.hasOption("--registry-name"))
-                 REGISTRY_NAME = commandLine.getOptionValues("n")[0];
-            else REGISTRY_NAME = "WORTH-RMI";
+                 config.registryName = commandLine.getOptionValues("n")[0];
+
+            if (commandLine.hasOption("e") || commandLine.hasOption("--engine")) {
+                try {
+                    config.engine = ServerConfig.Engine.valueOf(commandLine.getOptionValues("e")[0].toUpperCase());
+                }catch (IllegalArgumentException e){
+                    throw new ParseException("unknown engine");
+                }
+            }
+
+            if (commandLine.hasOption("l") || commandLine.hasOption("--log-level")) {
+                try {
+                    Log.setLevel(Log.Level.valueOf(commandLine.getOptionValues("l")[0].toUpperCase()));
+                }catch (IllegalArgumentException e){
+                    throw new ParseException("unknown log level");
+                }
+            }
+
+            if (commandLine.hasOption("t") || commandLine.hasOption("--reactor-threads"))
+                 config.reactorThreads = Integer.parseInt(commandLine.getOptionValues("t")[0]);
+
+            if (commandLine.hasOption("w") || commandLine.hasOption("--worker-threads"))
+                 config.workerThreads = Integer.parseInt(commandLine.getOptionValues("w")[0]);
+
+            if (commandLine.hasOption("q") || commandLine.hasOption("--worker-queue"))
+                 config.workerQueueSize = Integer.parseInt(commandLine.getOptionValues("q")[0]);
+
+            if (commandLine.hasOption("m") || commandLine.hasOption("--write-high-water"))
+                 config.writeHighWaterMark = Integer.parseInt(commandLine.getOptionValues("m")[0]);
+
+            if (config.reactorThreads < 1) throw new ParseException("at least one reactor thread is needed");
+            if (commandLine.hasOption("i") || commandLine.hasOption("--idle-timeout"))
+                config.idleTimeout = Integer.parseInt(commandLine.getOptionValues("i")[0]);
+
+            if (commandLine.hasOption("c") || commandLine.hasOption("--max-connections"))
+                config.maxConnections = Integer.parseInt(commandLine.getOptionValues("c")[0]);
+
+            if (commandLine.hasOption("a") || commandLine.hasOption("--max-connections-per-address"))
+                config.maxConnectionsPerAddress = Integer.parseInt(commandLine.getOptionValues("a")[0]);
+
+            if (commandLine.hasOption("u") || commandLine.hasOption("--auth-threads"))
+                config.authThreads = Integer.parseInt(commandLine.getOptionValues("u")[0]);
+
+            if (commandLine.hasOption("U") || commandLine.hasOption("--auth-queue"))
+                config.authQueueSize = Integer.parseInt(commandLine.getOptionValues("U")[0]);
+
+            if (commandLine.hasOption("H") || commandLine.hasOption("--hash-iterations"))
+                config.hashIterations = Integer.parseInt(commandLine.getOptionValues("H")[0]);
+
+            if (commandLine.hasOption("L") || commandLine.hasOption("--user-login-rate"))
+                config.userLoginsPerMinute = Integer.parseInt(commandLine.getOptionValues("L")[0]);
+
+            if (commandLine.hasOption("J") || commandLine.hasOption("--address-login-rate"))
+                config.addressLoginsPerMinute = Integer.parseInt(commandLine.getOptionValues("J")[0]);
+
+            if (commandLine.hasOption("o") || commandLine.hasOption("--callback-threads"))
+                config.callbackThreads = Integer.parseInt(commandLine.getOptionValues("o")[0]);
+
+            if (commandLine.hasOption("O") || commandLine.hasOption("--callback-queue"))
+                config.callbackQueueSize = Integer.parseInt(commandLine.getOptionValues("O")[0]);
+
+            if (commandLine.hasOption("T") || commandLine.hasOption("--callback-timeout"))
+                config.callbackTimeout = Integer.parseInt(commandLine.getOptionValues("T")[0]);
+
+            if (commandLine.hasOption("g") || commandLine.hasOption("--resume-grace"))
+                config.resumeGrace = Integer.parseInt(commandLine.getOptionValues("g")[0]);
+
+            if (commandLine.hasOption("A") || commandLine.hasOption("--admins"))
+                config.admins.addAll(Arrays.asList(commandLine.getOptionValues("A")[0].split(",")));
+
+            if (commandLine.hasOption("M") || commandLine.hasOption("--metrics-file"))
+                config.metricsFile = commandLine.getOptionValues("M")[0];
+
+            if (commandLine.hasOption("I") || commandLine.hasOption("--metrics-interval"))
+                config.metricsInterval = Integer.parseInt(commandLine.getOptionValues("I")[0]);
+
+            if (config.workerThreads < 0 || config.workerQueueSize < 1) throw new ParseException("invalid worker pool size");
+            if (config.writeHighWaterMark < 1) throw new ParseException("invalid high water mark");
+            if (config.idleTimeout < 0) throw new ParseException("invalid idle timeout");
+            if (config.maxConnections < 1 || config.maxConnectionsPerAddress < 1) throw new ParseException("invalid connection limit");
+            if (config.authThreads < 1 || config.authQueueSize < 1) throw new ParseException("invalid auth pool size");
+            if (config.userLoginsPerMinute < 0 || config.addressLoginsPerMinute < 0) throw new ParseException("invalid login rate");
+            if (config.callbackThreads < 1 || config.callbackQueueSize < 1) throw new ParseException("invalid callback pool size");
+            if (config.callbackTimeout < 0) throw new ParseException("invalid callback timeout");
+            if (config.resumeGrace < 0) throw new ParseException("invalid resume grace");
+            if (config.hashIterations < 1) throw new ParseException("invalid hash iterations");
+            if (config.metricsInterval < 1) throw new ParseException("invalid metrics interval");
 
-        }catch(ParseException p){
+        }catch(ParseException | NumberFormatException p){
 
             helpFormatter.printHelp("java WorthServer", options);
             System.exit(-1);
@@ -64,7 +164,7 @@ public class WorthServer {
         Printer.println(
                 "\n--- WELCOME TO W.O.R.T.H. SERVER - (PROGETTO RETI LABORATORIO, A.A. 2020/2021) ---\n",
                 "purple");
-        Server server = new Server(ADDRESS, TCP_PORT, REGISTRY_NAME, RMI_PORT, WORTHDIR);
+        Server server = new Server(config);
         server.start();
     }
 
@@ -0,0 +1,34 @@
+package server.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Flight recorder event spanning a RMI callback fan-out, queueing it for registered clients (see RMIServer). */
+@Name("worth.Callback")
+@Label("RMI Callback")
+@Category({"WORTH", "RMI"})
+@Description("RMI callback sent to registered clients")
+@StackTrace(false)
+public class CallbackEvent extends jdk.jfr.Event {
+    @Label("Callback")
+    @Description("update-users or update-chat")
+    public String callback;
+
+    @Label("Username")
+    @Description("user whose status changed, or user added to project")
+    public String username;
+
+    @Label("Project")
+    public String project;
+
+    @Label("Clients")
+    @Description("registered clients when fan-out started")
+    public int clients;
+
+    @Label("Dropped Clients")
+    @Description("clients removed because too many callbacks were waiting for them")
+    public int dropped;
+}
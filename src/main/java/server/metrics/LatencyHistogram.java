@@ -0,0 +1,76 @@
+package server.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with log-linear buckets, in the spirit of HdrHistogram: each power of two is split in
+ * 64 linear buckets, so recorded values keep about 1.5% precision from nanoseconds to hours.
+ * Recording is lock-free, many threads may record at once.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 7;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int HALF = SUB >> 1;
+    //values below SUB have a bucket each, every further power of two has HALF buckets
+    private static final int BUCKETS = SUB + (64 - SUB_BITS) * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /** @param nanos a latency, negative values count as 0. */
+    public void record(long nanos){
+        long v = Math.max(nanos, 0);
+        counts.incrementAndGet(bucket(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    public long getCount(){
+        return count.get();
+    }
+
+    public long getMax(){
+        return max.get();
+    }
+
+    public double getMean(){
+        long c = count.get();
+        return c == 0 ? 0 : (double) sum.get() / c;
+    }
+
+    /**
+     * @param percentile between 0 and 100, e.g. 99.9.
+     * @return highest value equivalent to the one at percentile, 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile){
+        long total = count.get();
+        if(total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            seen += counts.get(i);
+            if(seen >= rank) return Math.min(highestEquivalent(i), max.get());
+        }
+        return max.get();
+    }
+
+    private static int bucket(long v){
+        int bits = 64 - Long.numberOfLeadingZeros(v);
+        if(bits <= SUB_BITS) return (int) v;
+        int shift = bits - SUB_BITS;
+        //top SUB_BITS bits of v, in [HALF, SUB)
+        int top = (int) (v >>> shift);
+        return SUB + (shift - 1) * HALF + (top - HALF);
+    }
+
+    private static long highestEquivalent(int bucket){
+        if(bucket < SUB) return bucket;
+        int shift = (bucket - SUB) / HALF + 1;
+        long top = HALF + (bucket - SUB) % HALF;
+        return ((top + 1) << shift) - 1;
+    }
+}
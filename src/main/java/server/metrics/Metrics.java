@@ -0,0 +1,117 @@
+package server.metrics;
+
+import server.protocol.JsonResponseWriter;
+import server.protocol.ResponseWriter;
+import server.utils.Log;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process wide registry of server metrics: counters, gauges read when reported, and latency timers.
+ * Instrumented code looks its counters and timers up once and keeps them, updates are then lock-free.
+ * Metrics are reported through the admin only stats request and, if configured, dumped to a file periodically.
+ */
+public class Metrics {
+    private static final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LatencyHistogram> timers = new ConcurrentHashMap<>();
+
+    /** @return counter registered with name, created on first use. */
+    public static LongAdder counter(String name){
+        LongAdder c = counters.get(name);
+        return c != null ? c : counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /** @return timer registered with name, created on first use. Timers record nanoseconds. */
+    public static LatencyHistogram timer(String name){
+        LatencyHistogram t = timers.get(name);
+        return t != null ? t : timers.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    /** registers a value read each time metrics are reported, replacing any gauge with same name. */
+    public static void gauge(String name, LongSupplier value){
+        gauges.put(name, value);
+    }
+
+    /**
+     * Writes every metric as an object, names sorted: counters and gauges by name, then timers with their
+     * count and latency percentiles in microseconds.
+     */
+    public static void write(ResponseWriter out){
+        out.beginObject();
+        out.name("counters").beginObject();
+        for(Map.Entry<String, LongAdder> c : new TreeMap<>(counters).entrySet()) out.name(c.getKey()).value(c.getValue().sum());
+        out.endObject();
+
+        out.name("gauges").beginObject();
+        for(Map.Entry<String, LongSupplier> g : new TreeMap<>(gauges).entrySet()) out.name(g.getKey()).value(g.getValue().getAsLong());
+        out.endObject();
+
+        out.name("timers").beginObject();
+        for(Map.Entry<String, LatencyHistogram> t : new TreeMap<>(timers).entrySet()){
+            LatencyHistogram h = t.getValue();
+            out.name(t.getKey()).beginObject();
+            out.name("count").value(h.getCount());
+            out.name("mean-us").value(Math.round(h.getMean() / 1000));
+            out.name("p50-us").value(h.getValueAtPercentile(50) / 1000);
+            out.name("p99-us").value(h.getValueAtPercentile(99) / 1000);
+            out.name("p999-us").value(h.getValueAtPercentile(99.9) / 1000);
+            out.name("max-us").value(h.getMax() / 1000);
+            out.endObject();
+        }
+        out.endObject();
+        out.endObject();
+    }
+
+    /**
+     * Starts writing metrics as JSON to file every interval seconds, on a daemon thread.
+     * File is replaced at once, readers never see a partial dump.
+     */
+    public static void startDump(String file, int interval){
+        Path path = Paths.get(file).toAbsolutePath();
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "worth-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleAtFixedRate(() -> dump(path), interval, interval, TimeUnit.SECONDS);
+    }
+
+    private static void dump(Path path){
+        StringWriter json = new StringWriter();
+        ResponseWriter out = new JsonResponseWriter(json);
+        out.beginObject();
+        out.name("time").value(System.currentTimeMillis());
+        out.name("metrics");
+        write(out);
+        out.endObject();
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer w = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)){
+            w.write(json.toString());
+        }catch (IOException e){
+            Log.error("failed to dump metrics to " + temp, e);
+            return;
+        }
+        try {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }catch (IOException e){
+            Log.error("failed to dump metrics to " + path, e);
+        }
+    }
+}
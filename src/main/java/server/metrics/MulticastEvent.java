@@ -0,0 +1,26 @@
+package server.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Flight recorder event for a project chat multicast address being allocated (see MulticastBaker). */
+@Name("worth.MulticastAllocation")
+@Label("Multicast Allocation")
+@Category({"WORTH", "Chat"})
+@Description("Multicast address allocated to a project chat")
+@StackTrace(false)
+public class MulticastEvent extends jdk.jfr.Event {
+    @Label("Address")
+    @Description("null if addresses ran out")
+    public String address;
+
+    @Label("Reused")
+    @Description("address was released by a deleted project")
+    public boolean reused;
+
+    @Label("Reusable Left")
+    public int reusable;
+}
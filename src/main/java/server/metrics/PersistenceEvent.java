@@ -0,0 +1,30 @@
+package server.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Flight recorder event spanning a project or card file written by FileHandler. */
+@Name("worth.Persistence")
+@Label("Persistence")
+@Category({"WORTH", "Persistence"})
+@Description("Project or card saved to disk")
+@StackTrace(false)
+public class PersistenceEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    @Description("save-project or save-card")
+    public String operation;
+
+    @Label("Project")
+    public String project;
+
+    @Label("Card")
+    public String card;
+
+    @Label("Size")
+    @DataAmount
+    public long bytes;
+}
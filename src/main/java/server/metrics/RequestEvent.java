@@ -0,0 +1,50 @@
+package server.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event spanning a TCP request from decoding to its encoded response (see Server.respond).
+ * Recorded only while a recording enables it, e.g. java -XX:StartFlightRecording ...
+ */
+@Name("worth.Request")
+@Label("Request")
+@Category({"WORTH", "Requests"})
+@Description("TCP request decoded, dispatched and encoded")
+@StackTrace(false)
+public class RequestEvent extends jdk.jfr.Event {
+    @Label("Method")
+    public String method;
+
+    @Label("Username")
+    public String username;
+
+    @Label("Project")
+    public String project;
+
+    @Label("Card")
+    public String card;
+
+    @Label("Binary Protocol")
+    public boolean binary;
+
+    @Label("Return Code")
+    public int returnCode;
+
+    @Label("Decode Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long decodeTime;
+
+    @Label("Request Size")
+    @DataAmount
+    public int requestBytes;
+
+    @Label("Response Size")
+    @DataAmount
+    public long responseBytes;
+}
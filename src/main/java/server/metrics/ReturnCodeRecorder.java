@@ -0,0 +1,96 @@
+package server.metrics;
+
+import server.protocol.ResponseWriter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ResponseWriter passing everything through to another one, counting the return code of the response
+ * (return-code.NNN counters). Return codes nested deeper, such as batch results, are not counted.
+ */
+public class ReturnCodeRecorder implements ResponseWriter {
+    private static final LongAdder[] byCode = new LongAdder[600];
+
+    private final ResponseWriter out;
+    private int depth = 0;
+    private boolean returnCode = false;
+    private int code = 0;
+
+    public ReturnCodeRecorder(ResponseWriter out){
+        this.out = out;
+    }
+
+    /** counts a return code written without going through a recorder. */
+    public static void record(long code){
+        if(code < 0 || code >= byCode.length) return;
+        int c = (int) code;
+        //racing threads get the same counter from the registry
+        LongAdder counter = byCode[c];
+        if(counter == null) byCode[c] = counter = Metrics.counter("return-code." + c);
+        counter.increment();
+    }
+
+    /** @return return code of the response written so far, 0 if none yet. */
+    public int getReturnCode(){
+        return code;
+    }
+
+    @Override
+    public ResponseWriter beginObject() {
+        depth++;
+        out.beginObject();
+        return this;
+    }
+
+    @Override
+    public ResponseWriter endObject() {
+        depth--;
+        out.endObject();
+        return this;
+    }
+
+    @Override
+    public ResponseWriter beginArray() {
+        depth++;
+        returnCode = false;
+        out.beginArray();
+        return this;
+    }
+
+    @Override
+    public ResponseWriter endArray() {
+        depth--;
+        out.endArray();
+        return this;
+    }
+
+    @Override
+    public ResponseWriter name(String name) {
+        returnCode = depth == 1 && name.equals("return-code");
+        out.name(name);
+        return this;
+    }
+
+    @Override
+    public ResponseWriter value(String value) {
+        out.value(value);
+        return this;
+    }
+
+    @Override
+    public ResponseWriter value(long value) {
+        if(returnCode){
+            code = (int) value;
+            record(value);
+        }
+        returnCode = false;
+        out.value(value);
+        return this;
+    }
+
+    @Override
+    public ResponseWriter value(boolean value) {
+        out.value(value);
+        return this;
+    }
+}
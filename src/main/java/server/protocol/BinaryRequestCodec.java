@@ -0,0 +1,72 @@
+package server.protocol;
+
+import shared.protocol.BinaryProtocol;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/** Decodes binary requests (see BinaryProtocol): method comes from the opcode table, values are read in place. */
+public class BinaryRequestCodec {
+
+    /**
+     * @throws IOException if payload is truncated, carries unknown opcode or field ids,
+     *         or more than Request.MAX_BATCH_SIZE sub-requests.
+     */
+    public static Request decode(byte[] frame) throws IOException {
+        return decode(frame, false);
+    }
+
+    /** @param nested true for sub-requests of a batch, which may not carry sub-requests themselves. */
+    private static Request decode(byte[] frame, boolean nested) throws IOException {
+        if(frame.length == 0) throw new IOException("Empty request");
+        int opcode = frame[0] & 0xFF;
+        if(opcode >= BinaryProtocol.METHODS.length) throw new IOException("Unknown opcode " + opcode);
+
+        Request request = new Request();
+        request.method = BinaryProtocol.METHODS[opcode];
+
+        int position = 1;
+        while(position < frame.length){
+            if(position + 3 > frame.length) throw new IOException("Truncated field");
+            int id = frame[position] & 0xFF;
+            int length = ((frame[position + 1] & 0xFF) << 8) | (frame[position + 2] & 0xFF);
+            position += 3;
+            if(position + length > frame.length) throw new IOException("Truncated field");
+            int start = position;
+            position += length;
+            //ids are resolved through the shared table, so adding a field there cannot shift decoding here
+            String field = id < BinaryProtocol.FIELDS.length ? BinaryProtocol.FIELDS[id] : null;
+            if(field == null) throw new IOException("Unknown field " + id);
+            //sub-request of a batch, encoded as a binary request itself. Nested batches are ignored.
+            if(field.equals("requests")){
+                if(nested) continue;
+                if(request.requests == null) request.requests = new ArrayList<>();
+                if(request.requests.size() == Request.MAX_BATCH_SIZE) throw new IOException("Too many requests in batch");
+                request.requests.add(decode(Arrays.copyOfRange(frame, start, position), true));
+                continue;
+            }
+            String value = new String(frame, start, length, StandardCharsets.UTF_8);
+
+            switch (field){
+                case "username": request.username = value; break;
+                case "password": request.password = value; break;
+                case "projectname": request.projectName = value; break;
+                case "cardname": request.cardName = value; break;
+                case "cardesc": request.cardDescription = value; break;
+                case "from": request.from = value; break;
+                case "to": request.to = value; break;
+                case "new-member": request.newMember = value; break;
+                case "cursor": request.cursor = value; break;
+                case "limit": request.limit = value; break;
+                case "fields": request.fields = value; break;
+                case "version": request.version = value; break;
+                case "id": request.id = value; break;
+                case "token": request.token = value; break;
+                default: throw new IOException("Unhandled field " + field);
+            }
+        }
+        return request;
+    }
+}
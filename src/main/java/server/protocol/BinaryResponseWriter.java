@@ -0,0 +1,103 @@
+package server.protocol;
+
+import shared.protocol.BinaryProtocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/** ResponseWriter emitting the tagged binary form of a response (see BinaryProtocol). */
+public class BinaryResponseWriter implements ResponseWriter {
+    private final OutputStream out;
+
+    /** @param out sink that never fails, such as a BufferChain. */
+    public BinaryResponseWriter(OutputStream out){
+        this.out = out;
+    }
+
+    @Override
+    public ResponseWriter beginObject() {
+        put(BinaryProtocol.OBJECT_START);
+        return this;
+    }
+
+    @Override
+    public ResponseWriter endObject() {
+        put(BinaryProtocol.OBJECT_END);
+        return this;
+    }
+
+    @Override
+    public ResponseWriter beginArray() {
+        put(BinaryProtocol.ARRAY_START);
+        return this;
+    }
+
+    @Override
+    public ResponseWriter endArray() {
+        put(BinaryProtocol.ARRAY_END);
+        return this;
+    }
+
+    @Override
+    public ResponseWriter name(String name) {
+        Integer id = BinaryProtocol.KEY_IDS.get(name);
+        if(id != null){
+            put(BinaryProtocol.KEY);
+            put(id);
+            return this;
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        put(BinaryProtocol.NAME);
+        put(bytes.length >> 8);
+        put(bytes.length);
+        write(bytes);
+        return this;
+    }
+
+    @Override
+    public ResponseWriter value(String value) {
+        if(value == null){
+            put(BinaryProtocol.NULL);
+            return this;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        put(BinaryProtocol.STRING);
+        put(bytes.length >> 24);
+        put(bytes.length >> 16);
+        put(bytes.length >> 8);
+        put(bytes.length);
+        write(bytes);
+        return this;
+    }
+
+    @Override
+    public ResponseWriter value(long value) {
+        put(BinaryProtocol.LONG);
+        for(int shift = 56; shift >= 0; shift -= 8) put((int) (value >> shift));
+        return this;
+    }
+
+    @Override
+    public ResponseWriter value(boolean value) {
+        put(value ? BinaryProtocol.TRUE : BinaryProtocol.FALSE);
+        return this;
+    }
+
+    private void put(int b){
+        try {
+            out.write(b);
+        }catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void write(byte[] bytes){
+        try {
+            out.write(bytes);
+        }catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package server.protocol;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Decodes JSON requests with a streaming reader straight from frame bytes: known keys are copied into a
+ * Request, anything else is skipped, and no JSON tree is ever built.
+ */
+public class JsonRequestCodec {
+
+    /**
+     * @param frame frame payload, UTF-8 encoded JSON object.
+     * @throws IOException if payload is not a well formed JSON object.
+     */
+    public static Request decode(byte[] frame) throws IOException {
+        JsonReader reader = new JsonReader(new Utf8Reader(frame));
+        //same leniency Gson.fromJson used to have for requests
+        reader.setLenient(true);
+        try {
+            return readRequest(reader, false);
+        }catch (IllegalStateException e){
+            //unexpected token type
+            throw new IOException(e);
+        }
+    }
+
+    /** @param nested true for sub-requests of a batch, which may not carry sub-requests themselves. */
+    private static Request readRequest(JsonReader reader, boolean nested) throws IOException {
+        Request request = new Request();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "method":      request.method = nextString(reader); break;
+                case "id":          request.id = nextString(reader); break;
+                case "username":    request.username = nextString(reader); break;
+                case "password":    request.password = nextString(reader); break;
+                case "token":       request.token = nextString(reader); break;
+                case "projectname": request.projectName = nextString(reader); break;
+                case "cardname":    request.cardName = nextString(reader); break;
+                case "cardesc":     request.cardDescription = nextString(reader); break;
+                case "from":        request.from = nextString(reader); break;
+                case "to":          request.to = nextString(reader); break;
+                case "new-member":  request.newMember = nextString(reader); break;
+                case "protocol":    request.protocol = nextString(reader); break;
+                case "cursor":      request.cursor = nextString(reader); break;
+                case "limit":       request.limit = nextString(reader); break;
+                case "fields":      request.fields = nextString(reader); break;
+                case "version":     request.version = nextString(reader); break;
+                case "requests":
+                    if(nested) reader.skipValue();
+                    else request.requests = readRequests(reader);
+                    break;
+                default:            reader.skipValue(); break;
+            }
+        }
+        reader.endObject();
+        return request;
+    }
+
+    /**
+     * sub-requests of a batch, see Request.requests.
+     * @throws IOException as soon as there are more than Request.MAX_BATCH_SIZE, before reading the rest.
+     */
+    private static ArrayList<Request> readRequests(JsonReader reader) throws IOException {
+        ArrayList<Request> requests = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()){
+            if(requests.size() == Request.MAX_BATCH_SIZE) throw new IOException("Too many requests in batch");
+            requests.add(readRequest(reader, true));
+        }
+        reader.endArray();
+        return requests;
+    }
+
+    private static String nextString(JsonReader reader) throws IOException {
+        if(reader.peek() == JsonToken.NULL){
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+}
@@ -0,0 +1,64 @@
+package server.protocol;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/** ResponseWriter emitting JSON text through a Gson streaming JsonWriter. */
+public class JsonResponseWriter implements ResponseWriter {
+    private final JsonWriter writer;
+
+    public JsonResponseWriter(Writer out){
+        writer = new JsonWriter(out);
+    }
+
+    @Override
+    public ResponseWriter beginObject() {
+        try { writer.beginObject(); } catch (IOException e) { throw new UncheckedIOException(e); }
+        return this;
+    }
+
+    @Override
+    public ResponseWriter endObject() {
+        try { writer.endObject(); } catch (IOException e) { throw new UncheckedIOException(e); }
+        return this;
+    }
+
+    @Override
+    public ResponseWriter beginArray() {
+        try { writer.beginArray(); } catch (IOException e) { throw new UncheckedIOException(e); }
+        return this;
+    }
+
+    @Override
+    public ResponseWriter endArray() {
+        try { writer.endArray(); } catch (IOException e) { throw new UncheckedIOException(e); }
+        return this;
+    }
+
+    @Override
+    public ResponseWriter name(String name) {
+        try { writer.name(name); } catch (IOException e) { throw new UncheckedIOException(e); }
+        return this;
+    }
+
+    @Override
+    public ResponseWriter value(String value) {
+        try { writer.value(value); } catch (IOException e) { throw new UncheckedIOException(e); }
+        return this;
+    }
+
+    @Override
+    public ResponseWriter value(long value) {
+        try { writer.value(value); } catch (IOException e) { throw new UncheckedIOException(e); }
+        return this;
+    }
+
+    @Override
+    public ResponseWriter value(boolean value) {
+        try { writer.value(value); } catch (IOException e) { throw new UncheckedIOException(e); }
+        return this;
+    }
+}
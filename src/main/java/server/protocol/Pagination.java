@@ -0,0 +1,54 @@
+package server.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Paging parameters of list requests (list-cards, get-card-history, list-users, list-online).
+ * A page ends with an opaque "next-cursor" when more items follow; sending it back as "cursor" returns the next page.
+ * Cursors hold the position of the last item sent (a card name, a history index), so they stay valid while
+ * cards are added or moved. Malformed values throw IllegalArgumentException, answered 400.
+ */
+public class Pagination {
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+
+    /** @return requested page size, DEFAULT_LIMIT if not given. */
+    public static int limit(String limit){
+        if(limit == null) return DEFAULT_LIMIT;
+        int l = Integer.parseInt(limit);
+        if(l < 1 || l > MAX_LIMIT) throw new IllegalArgumentException("limit out of range");
+        return l;
+    }
+
+    /** encodes position of last item of a page, kind tells which request cursor belongs to. */
+    public static String encode(String kind, String position){
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((kind + ":" + position).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** @return position held by cursor, null if cursor is null (first page). */
+    public static String decode(String kind, String cursor){
+        if(cursor == null) return null;
+        String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        if(!decoded.startsWith(kind + ":")) throw new IllegalArgumentException("cursor of another request");
+        return decoded.substring(kind.length() + 1);
+    }
+
+    /**
+     * @param fields comma separated response keys to include, e.g. "card-name,card-state".
+     * @return requested keys, or null if every field is requested.
+     */
+    public static Set<String> fields(String fields){
+        if(fields == null) return null;
+        return new HashSet<>(Arrays.asList(fields.split(",")));
+    }
+
+    /** true if key has to be written, according to fields projection. */
+    public static boolean includes(Set<String> fields, String key){
+        return fields == null || fields.contains(key);
+    }
+}
@@ -0,0 +1,35 @@
+package server.protocol;
+
+import java.util.List;
+
+/**
+ * A decoded TCP request. Fields are named after JSON request keys, the ones a method does not use are null.
+ * Decoded field by field by a streaming codec (see JsonRequestCodec), no intermediate JSON tree is built.
+ */
+public class Request {
+    //sub-requests a single batch request may carry, enforced by codecs while decoding them
+    public static final int MAX_BATCH_SIZE = 1000;
+
+    public String method;
+    //optional, echoed back in the response
+    public String id;
+    public String username;
+    public String password;
+    //session token issued at login, authorizes request in place of username
+    public String token;
+    public String projectName;
+    public String cardName;
+    public String cardDescription;
+    public String from;
+    public String to;
+    public String newMember;
+    public String protocol;
+    //paging of list requests, see Pagination
+    public String cursor;
+    public String limit;
+    public String fields;
+    //project version a sync-project request starts from
+    public String version;
+    //ordered sub-requests of a batch request
+    public List<Request> requests;
+}
@@ -0,0 +1,16 @@
+package server.protocol;
+
+/**
+ * Streaming sink command handlers write their response into, field by field, without building a tree.
+ * Calls mirror the structure of a JSON document: names are only allowed inside objects.
+ */
+public interface ResponseWriter {
+    ResponseWriter beginObject();
+    ResponseWriter endObject();
+    ResponseWriter beginArray();
+    ResponseWriter endArray();
+    ResponseWriter name(String name);
+    ResponseWriter value(String value);
+    ResponseWriter value(long value);
+    ResponseWriter value(boolean value);
+}
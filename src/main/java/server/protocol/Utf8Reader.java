@@ -0,0 +1,57 @@
+package server.protocol;
+
+import java.io.Reader;
+
+/**
+ * Reader decoding UTF-8 straight from a frame payload, without the intermediate String or the
+ * internal buffers an InputStreamReader would allocate. Malformed sequences decode to U+FFFD.
+ */
+public class Utf8Reader extends Reader {
+    private final byte[] bytes;
+    private int position = 0;
+    //low surrogate of a supplementary character, returned by next read
+    private char pendingLow = 0;
+
+    public Utf8Reader(byte[] bytes){
+        this.bytes = bytes;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+        if(position >= bytes.length && pendingLow == 0) return -1;
+        int n = 0;
+        while(n < len){
+            if(pendingLow != 0){
+                cbuf[off + n++] = pendingLow;
+                pendingLow = 0;
+                continue;
+            }
+            if(position >= bytes.length) break;
+
+            int b = bytes[position++] & 0xFF;
+            int codePoint;
+            if(b < 0x80) codePoint = b;
+            else if((b & 0xE0) == 0xC0) codePoint = continuation(b & 0x1F, 1);
+            else if((b & 0xF0) == 0xE0) codePoint = continuation(b & 0x0F, 2);
+            else if((b & 0xF8) == 0xF0) codePoint = continuation(b & 0x07, 3);
+            else codePoint = 0xFFFD;
+
+            if(codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT){
+                cbuf[off + n++] = Character.highSurrogate(codePoint);
+                pendingLow = Character.lowSurrogate(codePoint);
+            } else cbuf[off + n++] = (char) codePoint;
+        }
+        return n;
+    }
+
+    private int continuation(int value, int count){
+        for(int i = 0; i < count; i++){
+            if(position >= bytes.length || (bytes[position] & 0xC0) != 0x80) return 0xFFFD;
+            value = (value << 6) | (bytes[position++] & 0x3F);
+        }
+        return value > Character.MAX_CODE_POINT ? 0xFFFD : value;
+    }
+
+    @Override
+    public void close() { }
+}
@@ -0,0 +1,128 @@
+package server.utils;
+
+import shared.protocol.Frames;
+
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Growable output made of pooled buffers, used to encode a response frame of any size without copying it
+ * into a single array: once a buffer is full the next one is taken from the pool, each bigger than the last.
+ * Room for the frame length header is reserved at the start and filled in by finish().
+ */
+public class BufferChain extends OutputStream {
+    private final BufferPool pool;
+    private final List<ByteBuffer> buffers = new ArrayList<>(2);
+    private final Utf8Writer writer = new Utf8Writer();
+    private ByteBuffer current;
+    private int size = 0;
+
+    public BufferChain(BufferPool pool){
+        this.pool = pool;
+        current = pool.acquire(BufferPool.SMALL);
+        current.position(Frames.HEADER_SIZE);
+        buffers.add(current);
+    }
+
+    @Override
+    public void write(int b) {
+        if(!current.hasRemaining()) grow();
+        current.put((byte) b);
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        while(len > 0){
+            if(!current.hasRemaining()) grow();
+            int n = Math.min(len, current.remaining());
+            current.put(b, off, n);
+            off += n;
+            len -= n;
+            size += n;
+        }
+    }
+
+    /** character view of this chain, encoding as UTF-8 straight into pooled buffers. */
+    public Writer asWriter(){
+        return writer;
+    }
+
+    /** writes frame header and returns buffers ready to be written to a channel, in order. */
+    public List<ByteBuffer> finish(){
+        buffers.get(0).putInt(0, size);
+        for(ByteBuffer b : buffers) b.flip();
+        return buffers;
+    }
+
+    /** gives every buffer back to the pool, for a chain that is not going to be written. */
+    public void discard(){
+        for(ByteBuffer b : buffers) pool.release(b);
+        buffers.clear();
+    }
+
+    private void grow(){
+        int next = current.capacity() < BufferPool.MEDIUM ? BufferPool.MEDIUM : BufferPool.LARGE;
+        current = pool.acquire(next);
+        buffers.add(current);
+    }
+
+    private class Utf8Writer extends Writer {
+        //high surrogate waiting for its pair across write calls
+        private char highSurrogate = 0;
+
+        @Override
+        public void write(int c) {
+            writeChar((char) c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            for(int i = off; i < off + len; i++) writeChar(cbuf[i]);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            for(int i = off; i < off + len; i++) writeChar(str.charAt(i));
+        }
+
+        private void writeChar(char c){
+            if(highSurrogate != 0){
+                char high = highSurrogate;
+                highSurrogate = 0;
+                if(!Character.isLowSurrogate(c)){
+                    //unpaired surrogate, replaced as String.getBytes would do
+                    BufferChain.this.write('?');
+                    writeChar(c);
+                    return;
+                }
+                int codePoint = Character.toCodePoint(high, c);
+                BufferChain.this.write(0xF0 | (codePoint >> 18));
+                BufferChain.this.write(0x80 | ((codePoint >> 12) & 0x3F));
+                BufferChain.this.write(0x80 | ((codePoint >> 6) & 0x3F));
+                BufferChain.this.write(0x80 | (codePoint & 0x3F));
+                return;
+            }
+            if(c < 0x80) BufferChain.this.write(c);
+            else if(c < 0x800){
+                BufferChain.this.write(0xC0 | (c >> 6));
+                BufferChain.this.write(0x80 | (c & 0x3F));
+            }
+            else if(Character.isHighSurrogate(c)) highSurrogate = c;
+            else {
+                BufferChain.this.write(0xE0 | (c >> 12));
+                BufferChain.this.write(0x80 | ((c >> 6) & 0x3F));
+                BufferChain.this.write(0x80 | (c & 0x3F));
+            }
+        }
+
+        @Override
+        public void flush() { }
+
+        @Override
+        public void close() { }
+    }
+}
@@ -0,0 +1,62 @@
+package server.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct ByteBuffers in a few size classes, shared by reactor and worker threads.
+ * Buffers are handed out cleared and must be given back through release() once written;
+ * each class retains a bounded number of free buffers, extra ones are left to the garbage collector.
+ */
+public class BufferPool {
+    public static final int SMALL = 512;
+    public static final int MEDIUM = 4 * 1024;
+    public static final int LARGE = 64 * 1024;
+
+    private static final int[] SIZES = {SMALL, MEDIUM, LARGE};
+    private static final int[] RETAINED = {4096, 1024, 64};
+
+    private final SizeClass[] classes;
+
+    /** free buffers of one size, counted apart since ConcurrentLinkedQueue.size() walks the queue. */
+    private static class SizeClass {
+        final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+        final AtomicInteger freeCount = new AtomicInteger();
+    }
+
+    public BufferPool(){
+        classes = new SizeClass[SIZES.length];
+        for(int i = 0; i < SIZES.length; i++) classes[i] = new SizeClass();
+    }
+
+    /** @return a cleared buffer of the smallest class holding at least size bytes (LARGE at most). */
+    public ByteBuffer acquire(int size){
+        int c = sizeClass(size);
+        ByteBuffer buffer = classes[c].free.poll();
+        if(buffer == null) return ByteBuffer.allocateDirect(SIZES[c]);
+        classes[c].freeCount.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /** gives buffer back to the pool. Buffers not obtained from a pool are ignored. */
+    public void release(ByteBuffer buffer){
+        if(buffer == null || !buffer.isDirect()) return;
+        for(int c = 0; c < SIZES.length; c++){
+            if(buffer.capacity() != SIZES[c]) continue;
+            SizeClass sizeClass = classes[c];
+            if(sizeClass.freeCount.incrementAndGet() <= RETAINED[c]) sizeClass.free.add(buffer);
+            else sizeClass.freeCount.decrementAndGet();
+            return;
+        }
+    }
+
+    private static int sizeClass(int size){
+        for(int c = 0; c < SIZES.length - 1; c++){
+            if(size <= SIZES[c]) return c;
+        }
+        return SIZES.length - 1;
+    }
+}
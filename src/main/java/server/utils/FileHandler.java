@@ -4,15 +4,28 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import shared.serializers.FileSerializerHelper;
 import server.User;
+import server.metrics.LatencyHistogram;
+import server.metrics.Metrics;
+import server.metrics.PersistenceEvent;
 import shared.Card;
 import shared.Project;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class FileHandler {
+    private static final LatencyHistogram saveUserTimer = Metrics.timer("file.save-user");
+    private static final LatencyHistogram saveProjectTimer = Metrics.timer("file.save-project");
+    private static final LatencyHistogram saveCardTimer = Metrics.timer("file.save-card");
+    private static final LatencyHistogram commitBatchTimer = Metrics.timer("file.commit-batch");
+    private static final LatencyHistogram deleteProjectTimer = Metrics.timer("file.delete-project");
+    private static final LatencyHistogram loadUsersTimer = Metrics.timer("file.load-users");
+    private static final LatencyHistogram loadProjectsTimer = Metrics.timer("file.load-projects");
+
     private final String userspath;
     private final String projectpath;
 
@@ -21,6 +34,16 @@ public class FileHandler {
 
     private final Gson serializer;
 
+    //saves deferred by the batch running on current thread, if any (see beginBatch).
+    private final ThreadLocal<Batch> batch = new ThreadLocal<>();
+
+    /** latest state to be written of each project and card touched by a batch. */
+    private static class Batch {
+        final LinkedHashMap<String, Project> projects = new LinkedHashMap<>();
+        //keyed by project name and card name
+        final LinkedHashMap<String, LinkedHashMap<String, Card>> cards = new LinkedHashMap<>();
+    }
+
     public FileHandler(String projectdir){
         String basepath = projectdir + "/worth";
         userspath   = basepath +       "/users";
@@ -31,10 +54,11 @@ public class FileHandler {
         projects= new File(projectpath);
         serializer = setGson();
         if(!base.exists()){
-            Printer.println("> Creating Project directories... -->" + projectdir, "yellow");
+            Log.info("Creating Project directories... -->" + projectdir);
             boolean res = base.mkdir() && users.mkdir() && projects.mkdir();
             if(!res){
-                Printer.println("> ERROR: Failed to create project directories! Quitting.", "red");
+                Log.error("Failed to create project directories! Quitting.");
+                Log.flush();
                 System.exit(-1);
             }
         }
@@ -55,6 +79,7 @@ public class FileHandler {
     }
 
     public synchronized void saveUser(User user) {
+        long start = System.nanoTime();
         String userJson = serializer.toJson(user);
         File newUser = new File(userspath + "/" + user.getUsername() + ".json");
         try {
@@ -62,26 +87,86 @@ public class FileHandler {
             fw.write(userJson);
             fw.close();
         }catch(IOException e){
-            Printer.println("> ERROR: failed to save user" + user.getUsername(), "red");
+            Log.error("failed to save user " + user.getUsername(), e);
+        }
+        saveUserTimer.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Starts deferring project and card saves made by current thread, until commitBatch.
+     * A project or card saved many times in a batch (e.g. a card added then moved) is written once,
+     * with its latest state.
+     */
+    public void beginBatch(){
+        batch.set(new Batch());
+    }
+
+    /** writes everything saved since beginBatch at once, holding file handler lock a single time. */
+    public void commitBatch() throws IOException {
+        Batch b = batch.get();
+        if(b == null) return;
+        batch.remove();
+        long start = System.nanoTime();
+        int cards = 0;
+        synchronized (this){
+            for(Project p : b.projects.values()) writeProject(p);
+            for(String projectname : b.cards.keySet()){
+                for(Card c : b.cards.get(projectname).values()) writeCard(projectname, c);
+                cards += b.cards.get(projectname).size();
+            }
+        }
+        commitBatchTimer.record(System.nanoTime() - start);
+        int written = cards;
+        Log.debug(() -> "Batch committed: " + b.projects.size() + " projects, " + written + " cards");
+    }
+
+    public void saveProject(Project project) throws IOException {
+        Batch b = batch.get();
+        if(b != null){
+            b.projects.put(project.getName(), project);
+            return;
         }
+        writeProject(project);
     }
 
-    public synchronized void saveProject(Project project) throws IOException {
+    private synchronized void writeProject(Project project) throws IOException {
+        long start = System.nanoTime();
+        PersistenceEvent event = new PersistenceEvent();
+        event.begin();
         String projectJson = serializer.toJson(project);
         File projectDir = new File(projectpath + "/" + project.getName());
         if(!projectDir.exists()){
             if (!projectDir.mkdir())
-                Printer.println("> ERROR: failed to create project directory" + project.getName(), "red");
+                Log.error("failed to create project directory " + project.getName());
         }
 
         File projectFile = new File(projectpath + "/" + project.getName() + "/property.json");
         FileWriter fw = new FileWriter(projectFile);
-        Printer.println(projectJson, "yellow");
         fw.write(projectJson);
         fw.close();
+        saveProjectTimer.record(System.nanoTime() - start);
+        if(event.shouldCommit()){
+            event.operation = "save-project";
+            event.project = project.getName();
+            event.bytes = projectJson.getBytes(StandardCharsets.UTF_8).length;
+            event.commit();
+        }
+        Log.debug(() -> "Project " + project.getName() + " saved");
+    }
+
+    public void saveCard(String projectname, Card card){
+        Batch b = batch.get();
+        if(b != null){
+            b.cards.computeIfAbsent(projectname, n -> new LinkedHashMap<>()).put(card.getName(), card);
+            return;
+        }
+        writeCard(projectname, card);
     }
 
-    public synchronized void saveCard(String projectname, Card card){
+    private synchronized void writeCard(String projectname, Card card){
+        long start = System.nanoTime();
+        PersistenceEvent event = new PersistenceEvent();
+        event.begin();
         String cardJson = serializer.toJson(card);
         File newCard = new File(projectpath + "/" + projectname + "/" + card.getName() + ".json");
         try {
@@ -89,13 +174,20 @@ public class FileHandler {
             fw.write(cardJson);
             fw.close();
         }catch (IOException e){
-            e.printStackTrace();
-            Printer.println("> ERROR: failed to save card" + card.getName(), "red");
+            Log.error("failed to save card " + card.getName(), e);
+        }
+        saveCardTimer.record(System.nanoTime() - start);
+        if(event.shouldCommit()){
+            event.operation = "save-card";
+            event.project = projectname;
+            event.card = card.getName();
+            event.bytes = cardJson.getBytes(StandardCharsets.UTF_8).length;
+            event.commit();
         }
     }
 
     public ConcurrentHashMap<String, User> loadUsers() throws IOException {
-
+        long start = System.nanoTime();
         ConcurrentHashMap<String, User> userlist = new ConcurrentHashMap<>();
         if(users == null || users.list() == null){
             return userlist;
@@ -105,12 +197,13 @@ public class FileHandler {
             User user = serializer.fromJson(fileToString(userspath + "/" + file), User.class);
             userlist.putIfAbsent(user.getUsername(), user);
         }
+        loadUsersTimer.record(System.nanoTime() - start);
 
         return userlist;
     }
 
     public ConcurrentHashMap<String, Project> loadProjects(){
-
+        long start = System.nanoTime();
         ConcurrentHashMap<String, Project> projectsMap = new ConcurrentHashMap<>();
 
         if(projects == null || projects.list() == null){
@@ -125,34 +218,41 @@ public class FileHandler {
                 p.setChatAddress(MulticastBaker.getNewMulticastAddress());
                 p.restoreCards(loadCards(projectpath + "/" + file));
                 projectsMap.putIfAbsent(p.getName(), p);
-                Printer.println("> INFO: Project " + file + " loaded", "green");
+                Log.info("Project " + file + " loaded");
             }catch (IOException e){
-                Printer.println(
-                        "> WARNING: Error restoring project "+ file + ": skipping",
-                        "yellow");
+                Log.warning("Error restoring project "+ file + ": skipping");
             }
         }
+        loadProjectsTimer.record(System.nanoTime() - start);
 
         return projectsMap;
     }
 
     public synchronized void deleteProject(String projectname){
+        //pending saves of a batch would bring deleted files back
+        Batch b = batch.get();
+        if(b != null){
+            b.projects.remove(projectname);
+            b.cards.remove(projectname);
+        }
+        long start = System.nanoTime();
         File projectDir = new File(projectpath + "/" + projectname);
         if(!projectDir.exists()){
-            Printer.println("> ERROR: Error while deleting project", "red");
+            Log.error("Error while deleting project " + projectname);
             return;
         }
 
         for(String file : projectDir.list()){
             File f = new File(projectpath + "/" + projectname + "/" + file);
             if(!f.delete()){
-                Printer.println("> ERROR: Errors while deleting project", "red");
+                Log.error("Errors while deleting project " + projectname);
             }
         }
 
          if(!projectDir.delete()){
-             Printer.println("> ERROR: Errors while deleting project", "red");
+             Log.error("Errors while deleting project " + projectname);
          }
+        deleteProjectTimer.record(System.nanoTime() - start);
     }
 
     private Project loadProject(String projectName) throws IOException {
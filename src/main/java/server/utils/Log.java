@@ -0,0 +1,180 @@
+package server.utils;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Leveled server logger. Callers only publish records into a bounded ring buffer, a single daemon thread
+ * formats them and writes them to stdout, so I/O threads never block on the terminal.
+ * When the ring is full records are dropped (and counted) rather than stalling the caller.
+ * Messages that are expensive to build should be passed as a Supplier: it is not even invoked
+ * when level is disabled.
+ */
+public class Log {
+
+    public enum Level {
+        DEBUG("blue"), INFO("green"), WARNING("yellow"), ERROR("red"), OFF(null);
+
+        private final String color;
+
+        Level(String color){
+            this.color = color;
+        }
+    }
+
+    private static final int CAPACITY = 8192; //power of two
+    private static final int MASK = CAPACITY - 1;
+
+    private static volatile Level level = Level.INFO;
+
+    private static final AtomicReferenceArray<Record> ring = new AtomicReferenceArray<>(CAPACITY);
+    //next sequence to be claimed by a producer
+    private static final AtomicLong tail = new AtomicLong();
+    //next sequence to be written out, only advanced by appender thread
+    private static volatile long head = 0;
+    private static final AtomicLong dropped = new AtomicLong();
+
+    private static volatile boolean sleeping = false;
+    private static final Thread appender;
+
+    static {
+        appender = new Thread(Log::append, "worth-log");
+        appender.setDaemon(true);
+        appender.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush));
+    }
+
+    private static class Record {
+        final Level level;
+        final String message;
+        final Throwable error;
+
+        Record(Level level, String message, Throwable error){
+            this.level = level;
+            this.message = message;
+            this.error = error;
+        }
+    }
+
+    public static void setLevel(Level newLevel){
+        level = newLevel;
+    }
+
+    public static Level getLevel(){
+        return level;
+    }
+
+    public static boolean isEnabled(Level l){
+        return l != Level.OFF && l.compareTo(level) >= 0;
+    }
+
+    /** number of records dropped so far because ring was full. */
+    public static long getDropped(){
+        return dropped.get();
+    }
+
+    public static void debug(Supplier<String> message){
+        if(isEnabled(Level.DEBUG)) publish(Level.DEBUG, message.get(), null);
+    }
+
+    public static void debug(String message){
+        if(isEnabled(Level.DEBUG)) publish(Level.DEBUG, message, null);
+    }
+
+    public static void info(String message){
+        if(isEnabled(Level.INFO)) publish(Level.INFO, message, null);
+    }
+
+    public static void warning(String message){
+        if(isEnabled(Level.WARNING)) publish(Level.WARNING, message, null);
+    }
+
+    public static void error(String message){
+        if(isEnabled(Level.ERROR)) publish(Level.ERROR, message, null);
+    }
+
+    public static void error(String message, Throwable error){
+        if(isEnabled(Level.ERROR)) publish(Level.ERROR, message, error);
+    }
+
+    private static void publish(Level l, String message, Throwable error){
+        long seq;
+        do {
+            seq = tail.get();
+            if(seq - head >= CAPACITY){
+                dropped.incrementAndGet();
+                return;
+            }
+        } while(!tail.compareAndSet(seq, seq + 1));
+
+        ring.set((int) (seq & MASK), new Record(l, message, error));
+        if(sleeping) LockSupport.unpark(appender);
+    }
+
+    /** appender loop: drains ring in sequence order, flushing output whenever it catches up. */
+    private static void append(){
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        long reportedDrops = 0;
+        while(true){
+            try {
+                Record r = ring.getAndSet((int) (head & MASK), null);
+                if(r != null){
+                    head = head + 1;
+                    write(out, r);
+                    continue;
+                }
+
+                long drops = dropped.get();
+                if(drops != reportedDrops){
+                    write(out, new Record(Level.WARNING, (drops - reportedDrops) + " log records dropped", null));
+                    reportedDrops = drops;
+                }
+                out.flush();
+
+                //slot may be claimed but not yet filled: park briefly, producers unpark us on publish.
+                sleeping = true;
+                if(ring.get((int) (head & MASK)) == null) LockSupport.parkNanos(100_000_000L);
+                sleeping = false;
+            }catch (Exception e){
+                //stdout is gone, nothing left to report to.
+                LockSupport.parkNanos(100_000_000L);
+            }
+        }
+    }
+
+    private static void write(Writer out, Record r) throws java.io.IOException {
+        out.write(Const.Colors.get(r.level.color));
+        out.write("> ");
+        out.write(r.level.name());
+        out.write(": ");
+        out.write(r.message);
+        if(r.error != null){
+            StringWriter trace = new StringWriter();
+            r.error.printStackTrace(new PrintWriter(trace));
+            out.write('\n');
+            out.write(trace.toString());
+        }
+        out.write(Const.ANSI_RESET);
+        out.write('\n');
+    }
+
+    /** waits (briefly) for already published records to be written out, used at shutdown. */
+    public static void flush(){
+        long target = tail.get();
+        long deadline = System.nanoTime() + 1_000_000_000L;
+        while(head < target && System.nanoTime() < deadline){
+            LockSupport.unpark(appender);
+            LockSupport.parkNanos(1_000_000L);
+        }
+        //give appender a chance to flush its writer too
+        LockSupport.parkNanos(10_000_000L);
+    }
+}
@@ -1,5 +1,7 @@
 package server.utils;
 
+import server.metrics.MulticastEvent;
+
 import java.util.ArrayList;
 
 public class MulticastBaker {
@@ -8,12 +10,14 @@ public class MulticastBaker {
     private static final ArrayList<String> reusableAddresses = new ArrayList<>();
 
     //returns new multicast address in 224.0.0.0/24
-    public static String getNewMulticastAddress() {
+    public static synchronized String getNewMulticastAddress() {
+        MulticastEvent event = new MulticastEvent();
+        event.begin();
         //set first octet to multicast address scope
         address[0] = 0xE0;
 
         if(reusableAddresses.size() > 0){
-            return reusableAddresses.remove(0);
+            return commit(event, reusableAddresses.remove(0), true);
         }
 
         if (!(multicastSuffix > 0xFF)){
@@ -21,11 +25,21 @@ public class MulticastBaker {
             address[3] = (multicastSuffix  & 0xFF);         //mask last eight bits
             address[2] = ((multicastSuffix >> 0x8) & 0xFF); //shift 8 bits right and mask last eight bits
             address[1] = ((multicastSuffix >> 0xF) & 0xFF); //shift 16 bits right and mask last eight bits
-            return address[0] + "." + address[1] + "." + address[2] + "." + address[3]; //return 224.x.x.x string
-        } else return null;
+            return commit(event, address[0] + "." + address[1] + "." + address[2] + "." + address[3], false); //return 224.x.x.x string
+        } else return commit(event, null, false);
+    }
+
+    private static String commit(MulticastEvent event, String allocated, boolean reused){
+        if(event.shouldCommit()){
+            event.address = allocated;
+            event.reused = reused;
+            event.reusable = reusableAddresses.size();
+            event.commit();
+        }
+        return allocated;
     }
 
-    public static void releaseAddress(String address){
+    public static synchronized void releaseAddress(String address){
         reusableAddresses.add(address);
     }
 }
@@ -2,23 +2,39 @@ package server.utils;
 
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
 import java.util.Base64;
 
+/**
+ * PBKDF2 password hashing. The cost (iterations) a hash was computed with is stored with each user,
+ * so it can be raised for new users while records hashed with an older cost keep working.
+ */
 public class PasswordHandler {
 
-    private static final int ITERATIONS = 65536;
+    /** cost of every hash computed before costs were recorded, still the default for new ones. */
+    public static final int DEFAULT_ITERATIONS = 65536;
     private static final int KEYLENGTH = 256;
 
+    //factory lookup walks security providers, each thread looks it up once and reuses it
+    private static final ThreadLocal<SecretKeyFactory> factories = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+        }catch (NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }
+    });
+    private static final SecureRandom secureRandom = new SecureRandom();
+
     public PasswordHandler() {
         return;
     }
 
     public static String salt(){
-        SecureRandom secureRandom = new SecureRandom();
         //generating random salt to hash our password
         byte[] salt = new byte[16];
         secureRandom.nextBytes(salt);
@@ -26,22 +42,32 @@ public class PasswordHandler {
     }
 
     public static String hash(String clearTextPassword, String salt){
-        char[] pass = clearTextPassword.toCharArray();
+        return hash(clearTextPassword, salt, DEFAULT_ITERATIONS);
+    }
+
+    public static String hash(String clearTextPassword, String salt, int iterations){
         byte[] byteSalt =  salt.getBytes();
 
-        KeySpec keySpec =  new PBEKeySpec(clearTextPassword.toCharArray(), byteSalt, ITERATIONS, KEYLENGTH);
+        KeySpec keySpec =  new PBEKeySpec(clearTextPassword.toCharArray(), byteSalt, iterations, KEYLENGTH);
 
         try {
-            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-            byte[] hash = factory.generateSecret(keySpec).getEncoded();
+            byte[] hash = factories.get().generateSecret(keySpec).getEncoded();
             return Base64.getEncoder().encodeToString(hash);
-        }catch( NoSuchAlgorithmException | InvalidKeySpecException e){
+        }catch(InvalidKeySpecException e){
             e.printStackTrace();
         }
         return null;
     }
 
     public static boolean authenticate(String providedPassword, String hash, String salt){
-        return hash(providedPassword, salt).equals(hash);
+        return authenticate(providedPassword, hash, salt, DEFAULT_ITERATIONS);
+    }
+
+    /** @param iterations cost hash was computed with. */
+    public static boolean authenticate(String providedPassword, String hash, String salt, int iterations){
+        String provided = hash(providedPassword, salt, iterations);
+        //constant time: response time tells nothing about how much of the hash matched
+        return provided != null && MessageDigest.isEqual(
+                provided.getBytes(StandardCharsets.UTF_8), hash.getBytes(StandardCharsets.UTF_8));
     }
 }
@@ -0,0 +1,105 @@
+package server.utils;
+
+import java.util.ArrayList;
+
+/**
+ * Hashed timer wheel: timeouts are hashed into a ring of slots by expiration tick, so scheduling is O(1) and
+ * each tick only visits one slot. Timeouts further away than one wheel turn wait some extra rounds in their slot.
+ * Precision is one tick. Not thread safe: meant to be owned by a single thread (e.g. a reactor) which calls
+ * advance periodically, see millisToNextTick.
+ */
+public class TimerWheel {
+
+    public static final class Timeout {
+        private final Runnable task;
+        private long rounds;
+        private boolean cancelled = false;
+        private Timeout next;
+
+        private Timeout(Runnable task, long rounds){
+            this.task = task;
+            this.rounds = rounds;
+        }
+
+        /** task will not run, timeout is dropped from its slot next time it is visited. */
+        public void cancel(){
+            cancelled = true;
+        }
+    }
+
+    private final Timeout[] slots;
+    private final int mask;
+    private final long tickMillis;
+    private long currentTick = 0;
+    private long lastTickTime;
+    private int pending = 0;
+
+    /**
+     * @param tickMillis wheel resolution.
+     * @param wheelSize number of slots, rounded up to a power of two.
+     */
+    public TimerWheel(long tickMillis, int wheelSize){
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.slots = new Timeout[size];
+        this.mask = size - 1;
+        this.tickMillis = tickMillis;
+        this.lastTickTime = now();
+    }
+
+    /** runs task after (at least) delayMillis, on the thread calling advance. */
+    public Timeout schedule(long delayMillis, Runnable task){
+        long now = now();
+        //nothing to catch up with: realign ticks to now instead of replaying the idle period
+        if(pending == 0) lastTickTime = now;
+        long ticks = Math.max(1, (now - lastTickTime + delayMillis + tickMillis - 1) / tickMillis);
+        int slot = (int) ((currentTick + ticks) & mask);
+        Timeout t = new Timeout(task, (ticks - 1) / slots.length);
+        t.next = slots[slot];
+        slots[slot] = t;
+        pending++;
+        return t;
+    }
+
+    /** runs tasks of every tick elapsed since last call. */
+    public void advance(){
+        long now = now();
+        ArrayList<Runnable> expired = new ArrayList<>();
+        while(pending > 0 && now - lastTickTime >= tickMillis){
+            lastTickTime += tickMillis;
+            currentTick++;
+            int slot = (int) (currentTick & mask);
+
+            //unlink cancelled and expired timeouts, the others wait for one more turn.
+            Timeout prev = null;
+            for(Timeout t = slots[slot]; t != null; t = t.next){
+                if(t.cancelled || t.rounds == 0){
+                    if(prev == null) slots[slot] = t.next;
+                    else prev.next = t.next;
+                    pending--;
+                    if(!t.cancelled) expired.add(t.task);
+                } else {
+                    t.rounds--;
+                    prev = t;
+                }
+            }
+            //tasks may schedule new timeouts, run them once the slot is consistent
+            for(Runnable task : expired) task.run();
+            expired.clear();
+        }
+        if(pending == 0) lastTickTime = now;
+    }
+
+    /** @return how long caller may wait before next advance, or 0 if no timeout is pending (wait forever). */
+    public long millisToNextTick(){
+        if(pending == 0) return 0;
+        return Math.max(1, lastTickTime + tickMillis - now());
+    }
+
+    public boolean isEmpty(){
+        return pending == 0;
+    }
+
+    private static long now(){
+        return System.nanoTime() / 1_000_000;
+    }
+}
@@ -10,7 +10,7 @@ public class Card {
     private final ArrayList<CardEvent> cardHistory;
     private final String name;
     private final String description;
-    private String status;
+    private volatile String status;
 
     public Card(String name, String desc){
         this.cardHistory = new ArrayList<>();
@@ -34,7 +34,7 @@ public class Card {
 
     public String getStatus(){ return status; }
 
-    public void setStatus(String status){
+    public synchronized void setStatus(String status){
         //card is created
         String prevStatus;
         if(this.status == null) prevStatus = "(created)";
@@ -48,8 +48,19 @@ public class Card {
         Collections.sort(cardHistory);
     }
 
-    public ArrayList<CardEvent> getCardHistory(){
-        return this.cardHistory;
+    /**
+     * returns a copy of at most limit card events, starting from index from. Events are only ever appended
+     * (in date order), so an index identifies the same event across calls.
+     */
+    public synchronized ArrayList<CardEvent> getCardHistory(int from, int limit){
+        int start = Math.min(from, cardHistory.size());
+        int end = (int) Math.min((long) start + limit, cardHistory.size());
+        return new ArrayList<>(cardHistory.subList(start, end));
+    }
+
+    /** returns a copy of card events, safe to iterate while card is being moved. */
+    public synchronized ArrayList<CardEvent> getCardHistory(){
+        return new ArrayList<>(this.cardHistory);
     }
 
 }
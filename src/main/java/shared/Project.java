@@ -1,6 +1,5 @@
 package shared;
 
-import com.google.gson.JsonObject;
 import exceptions.CardAlreadyExistsException;
 import exceptions.CardMoveForbidden;
 import exceptions.CardNotFoundException;
@@ -9,10 +8,53 @@ import server.utils.Const;
 import server.utils.FileHandler;
 
 import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
 
+/**
+ * Kanban board of a project. Projects are shared by every reactor thread, so each method
+ * accessing card lists or members is synchronized on the project instance.
+ * Every change (card added or moved, member added) bumps the project version and is kept in a bounded
+ * change log, so clients can fetch just what changed since the version they saw (see changesSince).
+ * Callers publishing a change to subscribers do so while holding the project lock, so events go out
+ * in version order (see Server.addCard).
+ */
 public class Project {
+    //changes kept for incremental sync, older versions get a full snapshot.
+    public static final int CHANGE_LOG_SIZE = 1024;
+
+    /** what changed since a given version, see changesSince. */
+    public static class Delta {
+        public final long version;
+        //true if cards holds every card, not just the changed ones.
+        public final boolean full;
+        public final ArrayList<Card> cards;
+        //current members if they changed, null otherwise.
+        public final ArrayList<String> members;
+
+        private Delta(long version, boolean full, ArrayList<Card> cards, ArrayList<String> members){
+            this.version = version;
+            this.full = full;
+            this.cards = cards;
+            this.members = members;
+        }
+    }
+
+    //a logged change: card it touched, or null if members changed.
+    private static class Change {
+        final long version;
+        final Card card;
+
+        Change(long version, Card card){
+            this.version = version;
+            this.card = card;
+        }
+    }
 
     private final String name;
     private final FileHandler fileHandler;
@@ -23,8 +65,16 @@ public class Project {
     private final HashMap<String, Card> inProgress;
     private final HashMap<String, Card> toBeRevised;
     private final HashMap<String, Card> done;
+    //every card sorted by name whatever its list, for stable paging (see getCardsAfter)
+    private final TreeMap<String, Card> cardIndex = new TreeMap<>();
     private final ArrayList<String> members;
-    private String chatAddress;
+    private volatile String chatAddress;
+
+    //versions are not persisted: seeding them from the clock at load makes versions seen before a restart
+    //look evicted, instead of matching unrelated changes. Clock is scaled by 1024: versions could only be
+    //reused by a project recording more than 1024 changes per millisecond between two loads.
+    private long version = System.currentTimeMillis() << 10;
+    private final ArrayDeque<Change> changeLog = new ArrayDeque<>();
 
     public Project(String projectname, User creator, String chatAddress, FileHandler fileHandler){
         //initialize private project lists
@@ -67,9 +117,12 @@ public class Project {
         this.members = members;
     }
 
-    public void moveCard(String name, String from, String to) throws CardMoveForbidden, CardNotFoundException {
+    /** @return project version after the move, see changesSince. */
+    public synchronized long moveCard(String name, String from, String to) throws CardMoveForbidden, CardNotFoundException {
         //card moves constraints check
         if(!cardExists(name))       throw new CardNotFoundException();
+        if(!cardLists.containsKey(from) || !cardLists.containsKey(to)) throw new CardMoveForbidden("Unknown list.");
+        if(!cardLists.get(from).containsKey(name)) throw new CardMoveForbidden("Card is not in list " + from);
         if(from.equals(to))         throw new CardMoveForbidden("Card move not allowed.");
         if(from.equals(Const.DONE)) throw new CardMoveForbidden("Card move not allowed.");
         if(from.equals(Const.INPROGRESS) && to.equals(Const.TODO))  throw new CardMoveForbidden("Card move not allowed.");
@@ -80,14 +133,16 @@ public class Project {
             Card temp = cardLists.get(from).remove(name);
             cardLists.get(to).putIfAbsent(name, temp);
             temp.setStatus(to);
+            recordChange(temp);
             fileHandler.saveCard(this.name, temp);
         }
         catch(Exception e){
                 e.printStackTrace();
         }
+        return version;
     }
 
-    private boolean cardExists(String cardname){
+    private synchronized boolean cardExists(String cardname){
         return (todo.containsKey(cardname) || inProgress.containsKey(cardname)) ||
                 (toBeRevised.containsKey(cardname) || done.containsKey(cardname));
     }
@@ -100,16 +155,7 @@ public class Project {
         return chatAddress;
     }
 
-    public JsonObject getCardJson(String name) throws CardNotFoundException {
-        Card card = getCard(name);
-        JsonObject cardInfo = new JsonObject();
-        cardInfo.addProperty("name", card.getName());
-        cardInfo.addProperty("description", card.getDescription());
-        cardInfo.addProperty("currentlist", card.getStatus());
-        return cardInfo;
-    }
-
-    public Card getCard(String name) throws CardNotFoundException {
+    public synchronized Card getCard(String name) throws CardNotFoundException {
         if(todo.containsKey(name))          return todo.get(name);
         if(inProgress.containsKey(name))    return inProgress.get(name);
         if(toBeRevised.containsKey(name))   return toBeRevised.get(name);
@@ -118,39 +164,49 @@ public class Project {
         throw new CardNotFoundException();
     }
 
-    public void addMember(User newMember){
-        if (!members.contains(newMember.getUsername()))
-        members.add(newMember.getUsername());
+    public synchronized void addMember(User newMember){
+        if (!members.contains(newMember.getUsername())) {
+            members.add(newMember.getUsername());
+            recordChange(null);
+        }
     }
 
-    public void addCard(Card card) throws CardAlreadyExistsException {
+    /** @return project version after the card is added, see changesSince. */
+    public synchronized long addCard(Card card) throws CardAlreadyExistsException {
         if(cardExists(card.getName())) throw new CardAlreadyExistsException();
         todo.putIfAbsent(card.getName(), card);
+        cardIndex.put(card.getName(), card);
+        recordChange(card);
         fileHandler.saveCard(this.name, card);
+        return version;
     }
 
-    public void addCard(String name, String desc) throws CardAlreadyExistsException {
+    public synchronized void addCard(String name, String desc) throws CardAlreadyExistsException {
         if(cardExists(name)) throw new CardAlreadyExistsException();
         Card c = new Card(name, desc);
         todo.putIfAbsent(name, c);
+        cardIndex.put(name, c);
+        recordChange(c);
         fileHandler.saveCard(this.name, c);
     }
 
-    public void restoreCards(ArrayList<Card> cards){
+    public synchronized void restoreCards(ArrayList<Card> cards){
         for(Card c : cards){
             cardLists.get(c.getStatus()).putIfAbsent(c.getName(), c);
+            cardIndex.putIfAbsent(c.getName(), c);
         }
     }
 
-    public boolean isMember(String username){
+    public synchronized boolean isMember(String username){
         return members.contains(username);
     }
 
-    public ArrayList<String> getMembers(){
-        return members;
+    /** returns a copy of member list, safe to iterate while other threads add members. */
+    public synchronized ArrayList<String> getMembers(){
+        return new ArrayList<>(members);
     }
 
-    public ArrayList<Card> getCards(){
+    public synchronized ArrayList<Card> getCards(){
         ArrayList<Card> allCards = new ArrayList<>();
         allCards.addAll(todo.values());
         allCards.addAll(inProgress.values());
@@ -159,7 +215,53 @@ public class Project {
         return allCards;
     }
 
-    public boolean isAllDone(){
+    /**
+     * returns at most limit cards in name order, starting right after card named after (from first card if null).
+     * Card names are unique and never reused, so the last name of a page is a stable position.
+     */
+    public synchronized ArrayList<Card> getCardsAfter(String after, int limit){
+        ArrayList<Card> page = new ArrayList<>(Math.min(limit, cardIndex.size()));
+        for(Card c : (after == null ? cardIndex : cardIndex.tailMap(after, false)).values()){
+            if(page.size() == limit) break;
+            page.add(c);
+        }
+        return page;
+    }
+
+    private void recordChange(Card card){
+        version++;
+        if(changeLog.size() == CHANGE_LOG_SIZE) changeLog.poll();
+        changeLog.add(new Change(version, card));
+    }
+
+    public synchronized long getVersion(){
+        return version;
+    }
+
+    /**
+     * Cards changed after since, each one once with its current state, in order of last change.
+     * If changes after since are no more in the log (or since is unknown), every card is returned instead.
+     */
+    public synchronized Delta changesSince(long since){
+        Change oldest = changeLog.peek();
+        boolean logged = since == version || (oldest != null && since >= oldest.version - 1 && since < version);
+        if(!logged) return new Delta(version, true, getCards(), getMembers());
+
+        LinkedHashMap<String, Card> changed = new LinkedHashMap<>();
+        boolean membersChanged = false;
+        //walk back from newest change, stopping at the first one client already has.
+        for(Iterator<Change> it = changeLog.descendingIterator(); it.hasNext(); ){
+            Change c = it.next();
+            if(c.version <= since) break;
+            if(c.card == null) membersChanged = true;
+            else changed.putIfAbsent(c.card.getName(), c.card);
+        }
+        ArrayList<Card> cards = new ArrayList<>(changed.values());
+        Collections.reverse(cards);
+        return new Delta(version, false, cards, membersChanged ? getMembers() : null);
+    }
+
+    public synchronized boolean isAllDone(){
         return (todo.isEmpty() && inProgress.isEmpty()) && toBeRevised.isEmpty();
     }
 
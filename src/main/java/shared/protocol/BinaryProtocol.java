@@ -0,0 +1,149 @@
+package shared.protocol;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of the WORTH protocol, an alternative to JSON negotiated per connection:
+ * client sends {"method": "hello", "protocol": "binary"} as its first frame and, once answered 200,
+ * both sides switch to binary frames (framing itself does not change, see Frames).
+ *
+ * Request payload: method opcode (1 byte), then any number of fields, each one a field id (1 byte),
+ * a length (2 bytes) and UTF-8 bytes of its value. Sub-requests of a batch are "requests" fields
+ * whose value is the binary request itself.
+ * Response payload: a tagged tree mirroring the JSON response, where well known keys are a single id byte.
+ */
+public class BinaryProtocol {
+    public static final String PROTOCOL_NAME = "binary";
+
+    /** request methods, opcode is the index. */
+    public static final String[] METHODS = {
+            null, "login", "logout", "create-project", "list-projects", "add-member", "show-members",
+            "add-card", "show-card", "move-card", "list-cards", "get-card-history", "delete-project",
+            "sync-project", "batch", "subscribe", "unsubscribe", "stats", "resume",
+            "list-users", "list-online"
+    };
+
+    /** request fields, field id is the index. */
+    public static final String[] FIELDS = {
+            null, "username", "password", "projectname", "cardname", "cardesc", "from", "to", "new-member",
+            "cursor", "limit", "fields", "version", "requests", "id", "token"
+    };
+
+    /** response keys sent as a single id byte, id is the index. */
+    public static final String[] KEYS = {
+            "return-code", "registered-users", "username", "status", "projects-list", "projects", "name",
+            "chat-addr", "card-list", "card-name", "card-state", "card-desc", "card-info", "description",
+            "currentlist", "card-history", "date", "from", "to", "members", "protocol",
+            "next-cursor", "version", "full", "results", "id", "event", "projectname", "stats", "token",
+            "retry-after", "presence-version", "users", "persisted"
+    };
+
+    //response value tags
+    public static final byte OBJECT_START = 1;
+    public static final byte OBJECT_END = 2;
+    public static final byte ARRAY_START = 3;
+    public static final byte ARRAY_END = 4;
+    public static final byte KEY = 5;       //followed by key id
+    public static final byte NAME = 6;      //followed by 2 bytes length and UTF-8 name
+    public static final byte STRING = 7;    //followed by 4 bytes length and UTF-8 value
+    public static final byte LONG = 8;      //followed by 8 bytes value
+    public static final byte TRUE = 9;
+    public static final byte FALSE = 10;
+    public static final byte NULL = 11;
+
+    private static final Map<String, Integer> METHOD_IDS = index(METHODS);
+    private static final Map<String, Integer> FIELD_IDS = index(FIELDS);
+    public static final Map<String, Integer> KEY_IDS = index(KEYS);
+
+    private static Map<String, Integer> index(String[] names){
+        Map<String, Integer> ids = new HashMap<>();
+        for(int i = 0; i < names.length; i++) if(names[i] != null) ids.put(names[i], i);
+        return ids;
+    }
+
+    /**
+     * Encodes a JSON request in binary form. Fields with no field id are dropped.
+     * @throws IllegalArgumentException if method has no opcode or a value is longer than 64KB.
+     */
+    public static byte[] encodeRequest(JsonObject request){
+        Integer opcode = METHOD_IDS.get(request.get("method").getAsString());
+        if(opcode == null) throw new IllegalArgumentException("No opcode for method " + request.get("method"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(opcode);
+        for(Map.Entry<String, JsonElement> field : request.entrySet()){
+            Integer id = FIELD_IDS.get(field.getKey());
+            if(id == null || field.getValue().isJsonNull()) continue;
+            //batch sub-requests: one field each, holding the sub-request binary encoding
+            if(field.getValue().isJsonArray()){
+                for(JsonElement sub : field.getValue().getAsJsonArray())
+                    writeField(out, field.getKey(), id, encodeRequest(sub.getAsJsonObject()));
+                continue;
+            }
+            writeField(out, field.getKey(), id, field.getValue().getAsString().getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeField(ByteArrayOutputStream out, String name, int id, byte[] value){
+        if(value.length > 0xFFFF) throw new IllegalArgumentException("Field " + name + " too long");
+        out.write(id);
+        out.write(value.length >> 8);
+        out.write(value.length);
+        out.write(value, 0, value.length);
+    }
+
+    /** decodes a binary response back into its JSON form. */
+    public static JsonElement decodeResponse(byte[] payload) throws ProtocolException {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(payload);
+            return readValue(in, in.get());
+        }catch (RuntimeException e){
+            throw new ProtocolException("Malformed binary response");
+        }
+    }
+
+    private static JsonElement readValue(ByteBuffer in, byte tag) throws ProtocolException {
+        switch (tag){
+            case OBJECT_START:
+                JsonObject object = new JsonObject();
+                byte next;
+                while((next = in.get()) != OBJECT_END){
+                    String name;
+                    if(next == KEY) name = KEYS[in.get()];
+                    else if(next == NAME) name = readString(in, in.getShort() & 0xFFFF);
+                    else throw new ProtocolException("Expected name, got tag " + next);
+                    object.add(name, readValue(in, in.get()));
+                }
+                return object;
+            case ARRAY_START:
+                JsonArray array = new JsonArray();
+                while((next = in.get()) != ARRAY_END) array.add(readValue(in, next));
+                return array;
+            case STRING: return new JsonPrimitive(readString(in, in.getInt()));
+            case LONG:   return new JsonPrimitive(in.getLong());
+            case TRUE:   return new JsonPrimitive(true);
+            case FALSE:  return new JsonPrimitive(false);
+            case NULL:   return JsonNull.INSTANCE;
+            default:     throw new ProtocolException("Unknown tag " + tag);
+        }
+    }
+
+    private static String readString(ByteBuffer in, int length){
+        String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+}
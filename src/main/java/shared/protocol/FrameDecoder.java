@@ -0,0 +1,98 @@
+package shared.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Splits bytes read from a channel into frames.
+ * One decoder is kept for each connection: frames are decoded in place from the buffer passed to feed(),
+ * and only the bytes of a trailing partial frame are copied aside until the remaining bytes arrive,
+ * so a connection with no partial frame holds no buffer at all.
+ * A single read carrying several frames yields all of them through subsequent next() calls.
+ */
+public class FrameDecoder {
+    private static final int MIN_PENDING_CAPACITY = 256;
+
+    //bytes of an incomplete frame (read mode), null if none.
+    private ByteBuffer pending;
+    //buffer frames are currently decoded from: either caller buffer or pending.
+    private ByteBuffer source;
+
+    /**
+     * Hands read bytes (buffer in read mode) to the decoder. Bytes are decoded in place: caller must not
+     * reuse data until next() has returned null, after which leftovers have been copied aside.
+     */
+    public void feed(ByteBuffer data){
+        if(pending == null){
+            source = data;
+            return;
+        }
+        pending.compact();
+        if(pending.remaining() < data.remaining()){
+            int capacity = pending.capacity();
+            while(capacity - pending.position() < data.remaining()) capacity *= 2;
+            ByteBuffer grown = ByteBuffer.allocate(capacity);
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        pending.put(data);
+        pending.flip();
+        source = pending;
+    }
+
+    /**
+     * @return payload of next complete frame, or null if more bytes are needed.
+     * @throws ProtocolException if peer announced a frame bigger than Frames.MAX_FRAME_SIZE.
+     */
+    public byte[] next() throws ProtocolException {
+        if(source == null) return null;
+
+        if(source.remaining() >= Frames.HEADER_SIZE) {
+            int length = source.getInt(source.position());
+            if (length < 0 || length > Frames.MAX_FRAME_SIZE)
+                throw new ProtocolException("Invalid frame length: " + length);
+
+            if (source.remaining() >= Frames.HEADER_SIZE + length) {
+                byte[] payload = new byte[length];
+                source.position(source.position() + Frames.HEADER_SIZE);
+                source.get(payload);
+                return payload;
+            }
+        }
+
+        //frame is incomplete: keep its bytes aside, caller buffer is free to be reused.
+        if(!source.hasRemaining()) pending = null;
+        else if(source != pending){
+            //sized on bytes received, not on announced length: a header alone must not reserve a whole frame.
+            //feed() grows it as the rest arrives.
+            pending = ByteBuffer.allocate(Math.max(MIN_PENDING_CAPACITY, source.remaining()));
+            pending.put(source);
+            pending.flip();
+        }
+        source = null;
+        return null;
+    }
+
+    /**
+     * Copies bytes not decoded yet aside, so that caller may reuse the buffer passed to feed() before next()
+     * has returned null, e.g. when it stops decoding for a while. Later next() calls decode from the copy.
+     */
+    public void detach(){
+        //source is either pending, already detached, or caller buffer while nothing is pending
+        if(source == null || source == pending) return;
+        if(!source.hasRemaining()){
+            source = null;
+            return;
+        }
+        pending = ByteBuffer.allocate(Math.max(MIN_PENDING_CAPACITY, source.remaining()));
+        pending.put(source);
+        pending.flip();
+        source = pending;
+    }
+
+    /** true if some bytes of an incomplete frame are still waiting for the rest. */
+    public boolean hasPartialFrame(){
+        return pending != null;
+    }
+}
@@ -0,0 +1,27 @@
+package shared.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wire framing used on the WORTH TCP connection.
+ * Every message (request or response) is sent as a 4 byte big-endian length followed by that many bytes of payload,
+ * so that messages split or coalesced by TCP can be reassembled on the other side (see FrameDecoder).
+ */
+public class Frames {
+    public static final int HEADER_SIZE = 4;
+    public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    /** wraps payload in a new buffer, length header included, ready to be written to a channel. */
+    public static ByteBuffer encode(byte[] payload){
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        frame.putInt(payload.length);
+        frame.put(payload);
+        frame.flip();
+        return frame;
+    }
+
+    public static ByteBuffer encode(String payload){
+        return encode(payload.getBytes(StandardCharsets.UTF_8));
+    }
+}
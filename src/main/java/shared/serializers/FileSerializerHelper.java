@@ -3,6 +3,7 @@ package shared.serializers;
 import com.google.gson.*;
 import server.User;
 import server.utils.FileHandler;
+import server.utils.PasswordHandler;
 import shared.Card;
 import shared.CardEvent;
 import shared.Project;
@@ -43,15 +44,18 @@ public class FileSerializerHelper {
         serialized.addProperty("name", user.getUsername());
         serialized.addProperty("password", user.getPassword());
         serialized.addProperty("salt", user.getSalt());
+        serialized.addProperty("iterations", user.getIterations());
         return serialized;
     };
 
     public JsonDeserializer<User> deserializeUser = (json, typeOfT, context) -> {
         JsonObject jsonObject = json.getAsJsonObject();
+        //users saved before hash cost was recorded were hashed with the default one
         return new User(
                 jsonObject.get("name").getAsString(),
                 jsonObject.get("password").getAsString(),
-                jsonObject.get("salt").getAsString());
+                jsonObject.get("salt").getAsString(),
+                jsonObject.has("iterations") ? jsonObject.get("iterations").getAsInt() : PasswordHandler.DEFAULT_ITERATIONS);
     };
 
     public JsonSerializer<Card> serializeCard = (card, type, jsonSerializationContext) -> {